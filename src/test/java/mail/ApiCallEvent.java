@@ -0,0 +1,146 @@
+package mail;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Событие JFR для одного вызова ajax.php: от открытия соединения до конца чтения ответа.</code><br>
+ * Если запись JFR не ведётся, соединение не отслеживается, и событие почти ничего не стоит. Каждое начатое событие
+ * записывается: при закрытии тела ответа или через {@link #finish}, если тело не читается.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>JFR event for one ajax.php call: from opening the connection to the end of reading the response.</code><br>
+ * When no JFR recording is running, the connection is not tracked and the event costs next to nothing. Every started
+ * event is committed: when the response body is closed, or through {@link #finish} if the body is not read.<br>
+ * </p>
+ */
+@Name("mail.ApiCall")
+@Label("API Call")
+@Category({"Guerrilla Mail", "API"})
+@Description("One ajax.php call, from opening the connection to the end of the response body")
+@StackTrace(false)
+class ApiCallEvent extends Event {
+    private static final Map<HttpURLConnection, ApiCallEvent> OPEN = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @Label("Function")
+    @Description("The ajax.php function, the f parameter")
+    String function;
+
+    @Label("Session")
+    @Description("Hash of the PHPSESSID cookie, so calls of one session can be grouped without recording the cookie")
+    String session;
+
+    @Label("Status")
+    int status;
+
+    @Label("Bytes")
+    @Description("Response body bytes as received, before decompression")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Starts timing a call if the event is enabled (начинает замер вызова, если событие включено)
+     */
+    static void begin(HttpURLConnection connection, String phpSessId) {
+        ApiCallEvent event = new ApiCallEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        String query = connection.getURL().getQuery();
+        event.function = query == null ? null : parameterOf(query, "f");
+        event.session = phpSessId == null ? null : Integer.toHexString(phpSessId.hashCode());
+        OPEN.put(connection, event);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Оборачивает тело ответа, чтобы считать байты и записать событие при закрытии потока.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Wraps the response body to count bytes and commit the event when the stream is closed.</code><br>
+     * </p>
+     *
+     * @param connection the connection passed to {@link #begin} (соединение, переданное в {@link #begin})
+     * @param body       the raw response body (исходное тело ответа)
+     * @return the body to read from <code>(тело для чтения)</code>
+     */
+    static InputStream track(HttpURLConnection connection, InputStream body) {
+        ApiCallEvent event = OPEN.remove(connection);
+        if (event == null) {
+            return body;
+        }
+        event.status = responseCode(connection);
+        return new FilterInputStream(body) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    event.bytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    event.bytes += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    event.commit();
+                }
+            }
+        };
+    }
+
+    /**
+     * Commits the event of a call whose body is not read: a failed call or a redirect leg
+     * (записывает событие вызова без чтения тела: неудачного вызова или шага перенаправления)
+     */
+    static void finish(HttpURLConnection connection) {
+        ApiCallEvent event = OPEN.remove(connection);
+        if (event != null) {
+            event.status = responseCode(connection);
+            event.commit();
+        }
+    }
+
+    private static int responseCode(HttpURLConnection connection) {
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String parameterOf(String query, String name) {
+        for (String param : query.split("&")) {
+            if (param.startsWith(name + "=")) {
+                return param.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+}
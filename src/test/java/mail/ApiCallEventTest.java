@@ -0,0 +1,137 @@
+package mail;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+import org.junit.jupiter.api.parallel.ResourceLock;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты событий JFR {@link ApiCallEvent} и {@link SessionEvent}, прочитанных через RecordingStream.</code><br>
+ * Тесты подменяют общий транспорт и статический сеанс {@link GuerrillaMailApi}, поэтому выполняются изолированно.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of the {@link ApiCallEvent} and {@link SessionEvent} JFR events, read through a RecordingStream.</code><br>
+ * The tests replace the shared transport and static session of {@link GuerrillaMailApi}, so they run in isolation.<br>
+ * </p>
+ */
+@Isolated
+@ResourceLock(GuerrillaMailApi.STATIC_SESSION)
+public class ApiCallEventTest {
+    private static final String CHECK_EMAIL_BODY = "{\"list\":[],\"count\":\"0\",\"sid_token\":\"sid\"}";
+
+    private Transport previousTransport;
+
+    @BeforeEach
+    public void saveTransport() {
+        previousTransport = GuerrillaMailApi.getTransport();
+    }
+
+    @AfterEach
+    public void restoreTransport() {
+        GuerrillaMailApi.setTransport(previousTransport);
+    }
+
+    @Test
+    public void recordsFunctionStatusAndBytesOfOneCall() throws Exception {
+        GuerrillaMailApi.setTransport(url -> new StubConnection(url, StubConnection.Reply.json(CHECK_EMAIL_BODY)));
+        GuerrillaSession session = new GuerrillaSession("jfr@guerrillamailblock.com", "sid", "php-jfr");
+        List<RecordedEvent> events = record("mail.ApiCall", () -> GuerrillaMailApi.callSession(session, ApiRequest.checkEmail(0)));
+
+        assertEquals(1, events.size(), "events: " + events);
+        RecordedEvent event = events.get(0);
+        assertEquals("check_email", event.getString("function"));
+        assertEquals(200, event.getInt("status"));
+        assertEquals(CHECK_EMAIL_BODY.getBytes(StandardCharsets.UTF_8).length, event.getLong("bytes"));
+        assertEquals(Integer.toHexString("php-jfr".hashCode()), event.getString("session"));
+    }
+
+    @Test
+    public void commitsRedirectLegs() throws Exception {
+        GuerrillaMailApi.setTransport(url -> url.getQuery().contains("leg=2")
+                ? new StubConnection(url, StubConnection.Reply.json(CHECK_EMAIL_BODY))
+                : new StubConnection(url, new StubConnection.Reply(302, new byte[0])
+                .header("Location", new URL(url, "?f=check_email&leg=2").toString())));
+        GuerrillaSession session = new GuerrillaSession("redirect@guerrillamailblock.com", "sid", "php-redirect");
+        List<RecordedEvent> events = record("mail.ApiCall", () -> GuerrillaMailApi.callSession(session, ApiRequest.checkEmail(0)));
+
+        assertEquals(List.of(302, 200), events.stream().map(event -> event.getInt("status")).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void debugRequestPrintingStartsNoEvent() throws Exception {
+        StubMailService service = new StubMailService();
+        GuerrillaMailApi.setTransport(service);
+        // With debug on and no email to delete, the only request sent is set_email_user
+        List<RecordedEvent> events = record("mail.ApiCall",
+                () -> GuerrillaMailApi.deleteEmail(-1, "debug" + InboxLifecycleManager.DOMAIN, true));
+
+        assertEquals(List.of("set_email_user"), service.functions());
+        assertEquals(List.of("set_email_user"), events.stream().map(event -> event.getString("function")).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void setSidTokenRecordsRefreshOnlyWhenChanged() throws Exception {
+        String previous = GuerrillaMailApi.getSidToken();
+        try {
+            List<RecordedEvent> events = record("mail.Session", () -> {
+                GuerrillaMailApi.setSidToken("token-1");
+                GuerrillaMailApi.setSidToken("token-1"); // Unchanged, no event
+                GuerrillaMailApi.setSidToken("token-2");
+            });
+            // The first call refreshes only if a token was set before the test
+            long expected = previous == null || previous.equals("token-1") ? 1 : 2;
+            assertEquals(expected, events.size(), "events: " + events);
+            assertTrue(events.stream().allMatch(event -> SessionEvent.REFRESH.equals(event.getString("action"))));
+        } finally {
+            GuerrillaMailApi.setSidToken(previous);
+        }
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the action under a RecordingStream and returns the events of the given type it committed. A marker event
+     * committed after the action tells when everything before it has been delivered.
+     */
+    private static List<RecordedEvent> record(String eventName, Action action) throws Exception {
+        List<RecordedEvent> events = new CopyOnWriteArrayList<>();
+        CountDownLatch markerSeen = new CountDownLatch(1);
+        try (RecordingStream stream = new RecordingStream()) {
+            stream.enable(eventName);
+            stream.enable(Marker.class);
+            stream.onEvent(eventName, events::add);
+            stream.onEvent(Marker.class.getAnnotation(Name.class).value(), event -> markerSeen.countDown());
+            CountDownLatch started = new CountDownLatch(1);
+            stream.onFlush(started::countDown);
+            stream.startAsync();
+            assertTrue(started.await(10, TimeUnit.SECONDS), "recording did not start");
+            action.run();
+            new Marker().commit();
+            assertTrue(markerSeen.await(10, TimeUnit.SECONDS), "events were not delivered");
+        }
+        return events;
+    }
+
+    @Name("mail.test.Marker")
+    private static final class Marker extends Event {
+    }
+}
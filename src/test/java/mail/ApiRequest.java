@@ -0,0 +1,240 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Типизированный запрос к ajax.php: функция и её параметры.</code><br>
+ * Для каждой функции есть отдельный фабричный метод. Префиксы строки запроса (<code>?f=...</code>,
+ * <code>&amp;email_id=</code>) закодированы заранее и хранятся в {@link Function}, поэтому запрос собирается одной
+ * конкатенацией, а значения экранируются через {@link URLEncoder} только при необходимости. Запрос неизменяем,
+ * не содержит sid_token и может использоваться повторно; sid_token добавляется в {@link #toUrl(String, String)}.
+ * Параметры в виде JSON для журнала создаются только по запросу ({@link #toJson(String)}).<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Typed ajax.php request: the function and its parameters.</code><br>
+ * Every function has its own factory method. The query string prefixes (<code>?f=...</code>,
+ * <code>&amp;email_id=</code>) are encoded once and kept in {@link Function}, so a request is built with a single
+ * concatenation, and values are escaped with {@link URLEncoder} only when needed. The request is immutable, holds no
+ * sid_token and can be reused; the sid_token is added by {@link #toUrl(String, String)}. The parameters are only turned
+ * into JSON for logging when asked for ({@link #toJson(String)}).<br>
+ * </p>
+ */
+public final class ApiRequest {
+    private static final String SID_TOKEN = "&sid_token=";
+    private static final String LANG = "en";
+    private static final ApiRequest GET_EMAIL_ADDRESS = new ApiRequest(Function.GET_EMAIL_ADDRESS,
+            Function.GET_EMAIL_ADDRESS.prefix + Function.GET_EMAIL_ADDRESS.parameterPrefixes[0] + LANG, LANG);
+
+    private final Function function;
+    private final String query;
+    private final Object[] values; // In the order of Function.parameters, a long[] for email_ids[]
+
+    /**
+     * The ajax.php functions used by the client (функции ajax.php, которые использует клиент)
+     */
+    public enum Function {
+        GET_EMAIL_ADDRESS("get_email_address", "lang"),
+        SET_EMAIL_USER("set_email_user", "email_user", "lang"),
+        CHECK_EMAIL("check_email", "seq", "email"),
+        GET_EMAIL_LIST("get_email_list", "offset"),
+        FETCH_EMAIL("fetch_email", "email_id"),
+        DEL_EMAIL("del_email", "email_ids[]"),
+        FORGET_ME("forget_me", "email_addr");
+
+        private final String apiName;
+        private final String prefix;
+        private final String[] parameters;
+        private final String[] parameterPrefixes;
+
+        Function(String apiName, String... parameters) {
+            this.apiName = apiName;
+            this.prefix = "?f=" + apiName;
+            this.parameters = parameters;
+            this.parameterPrefixes = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                parameterPrefixes[i] = "&" + URLEncoder.encode(parameters[i], StandardCharsets.UTF_8) + "=";
+            }
+        }
+
+        /**
+         * @return the value of the <code>f</code> parameter (значение параметра <code>f</code>)
+         */
+        public String getApiName() {
+            return apiName;
+        }
+    }
+
+    private ApiRequest(Function function, String query, Object... values) {
+        this.function = function;
+        this.query = query;
+        this.values = values;
+    }
+
+    /**
+     * @return a request for a random address in the current session (запрос случайного адреса в текущем сеансе)
+     */
+    public static ApiRequest getEmailAddress() {
+        return GET_EMAIL_ADDRESS; // Has no variable part, so one instance serves every call
+    }
+
+    /**
+     * @param emailUser the local part of the address, escaped as needed (локальная часть адреса, экранируется)
+     */
+    public static ApiRequest setEmailUser(String emailUser) {
+        Function f = Function.SET_EMAIL_USER;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + encode(emailUser) + f.parameterPrefixes[1] + LANG, emailUser, LANG);
+    }
+
+    /**
+     * @param seq the highest mail_id already seen (наибольший уже полученный mail_id)
+     */
+    public static ApiRequest checkEmail(long seq) {
+        Function f = Function.CHECK_EMAIL;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + seq, seq);
+    }
+
+    /**
+     * @param seq   the highest mail_id already seen (наибольший уже полученный mail_id)
+     * @param email the address to check (адрес для проверки)
+     */
+    public static ApiRequest checkEmail(long seq, String email) {
+        Function f = Function.CHECK_EMAIL;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + seq + f.parameterPrefixes[1] + encode(email), seq, email);
+    }
+
+    /**
+     * @param offset the number of emails to skip (число пропускаемых писем)
+     */
+    public static ApiRequest getEmailList(int offset) {
+        Function f = Function.GET_EMAIL_LIST;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + offset, offset);
+    }
+
+    /**
+     * @param mailId the email to fetch (письмо для загрузки)
+     */
+    public static ApiRequest fetchEmail(long mailId) {
+        Function f = Function.FETCH_EMAIL;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + mailId, mailId);
+    }
+
+    /**
+     * @param mailIds the emails to delete (письма для удаления)
+     */
+    public static ApiRequest delEmail(Collection<? extends Number> mailIds) {
+        Function f = Function.DEL_EMAIL;
+        long[] ids = new long[mailIds.size()];
+        StringBuilder query = new StringBuilder(f.prefix.length() + ids.length * (f.parameterPrefixes[0].length() + 10));
+        query.append(f.prefix);
+        int i = 0;
+        for (Number mailId : mailIds) {
+            ids[i++] = mailId.longValue();
+            query.append(f.parameterPrefixes[0]).append(mailId.longValue());
+        }
+        return new ApiRequest(f, query.toString(), (Object) ids);
+    }
+
+    /**
+     * @param mailId the email to delete (письмо для удаления)
+     */
+    public static ApiRequest delEmail(long mailId) {
+        Function f = Function.DEL_EMAIL;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + mailId, (Object) new long[]{mailId});
+    }
+
+    /**
+     * @param emailAddress the address the service should forget (адрес, который сервис должен забыть)
+     */
+    public static ApiRequest forgetMe(String emailAddress) {
+        Function f = Function.FORGET_ME;
+        return new ApiRequest(f, f.prefix + f.parameterPrefixes[0] + encode(emailAddress), emailAddress);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Формирует полный URL запроса.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Builds the full request URL.</code><br>
+     * </p>
+     *
+     * @param apiUrl   the ajax.php URL (URL ajax.php)
+     * @param sidToken the session token, or null to omit it (токен сеанса или null, чтобы не передавать его)
+     * @return the URL <code>(URL)</code>
+     */
+    public String toUrl(String apiUrl, String sidToken) {
+        if (sidToken == null) {
+            return apiUrl + query;
+        }
+        String encodedSidToken = encode(sidToken);
+        return new StringBuilder(apiUrl.length() + query.length() + SID_TOKEN.length() + encodedSidToken.length())
+                .append(apiUrl).append(query).append(SID_TOKEN).append(encodedSidToken).toString();
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Возвращает функцию и параметры запроса в виде JSON для журнала, без разбора URL.</code><br>
+     * Каждый вызов создаёт новый объект, поэтому его изменение не затрагивает запрос.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Returns the function and parameters of the request as JSON for logging, without parsing a URL.</code><br>
+     * Every call creates a new object, so changing it does not affect the request.<br>
+     * </p>
+     *
+     * @param sidToken the session token sent with the request, or null (токен сеанса, переданный с запросом, или null)
+     * @return the unescaped parameters, <code>f</code> included <code>(параметры без экранирования, включая <code>f</code>)</code>
+     */
+    public JSONObject toJson(String sidToken) {
+        JSONObject json = new JSONObject();
+        json.put("f", function.apiName);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof long[]) {
+                JSONArray ids = new JSONArray();
+                for (long id : (long[]) value) {
+                    ids.put(id);
+                }
+                value = ids;
+            }
+            json.put(function.parameters[i], value);
+        }
+        if (sidToken != null) {
+            json.put("sid_token", sidToken);
+        }
+        return json;
+    }
+
+    /**
+     * @return the encoded query, without sid_token (закодированная строка запроса без sid_token)
+     */
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    /**
+     * Escapes a query value with {@link URLEncoder}, or returns it as is when it has nothing to escape
+     * (экранирует значение параметра через {@link URLEncoder} или возвращает его как есть, если экранировать нечего)
+     */
+    static String encode(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean unreserved = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '*';
+            if (!unreserved) {
+                return URLEncoder.encode(value, StandardCharsets.UTF_8);
+            }
+        }
+        return value; // Nothing to escape, e.g. a sid_token
+    }
+}
@@ -0,0 +1,89 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты сборки URL в {@link ApiRequest}: экранирование значений и ключ <code>email_ids[]</code>.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of URL building in {@link ApiRequest}: value escaping and the <code>email_ids[]</code> key.</code><br>
+ * </p>
+ */
+public class ApiRequestTest {
+    private static final String API_URL = "https://api.guerrillamail.com/ajax.php";
+
+    @Test
+    public void escapesEmailUser() {
+        ApiRequest request = ApiRequest.setEmailUser("a+b c&d=e");
+        assertEquals("?f=set_email_user&email_user=a%2Bb+c%26d%3De&lang=en", request.toString());
+        assertEquals("a+b c&d=e", request.toJson(null).getString("email_user"));
+    }
+
+    @Test
+    public void keepsUnreservedValuesAsIs() {
+        assertEquals("?f=set_email_user&email_user=john.doe-1_x&lang=en", ApiRequest.setEmailUser("john.doe-1_x").toString());
+        assertEquals("?f=forget_me&email_addr=a%40guerrillamailblock.com", ApiRequest.forgetMe("a@guerrillamailblock.com").toString());
+    }
+
+    @Test
+    public void encodesEmailIdsKey() {
+        assertEquals("?f=del_email&email_ids%5B%5D=1&email_ids%5B%5D=22", ApiRequest.delEmail(List.of(1, 22L)).toString());
+        assertEquals(ApiRequest.delEmail(List.of(5)).toString(), ApiRequest.delEmail(5).toString());
+    }
+
+    @Test
+    public void appendsEscapedSidToken() {
+        assertEquals(API_URL + "?f=check_email&seq=7&email=x%40y.com&sid_token=ab%2Bc",
+                ApiRequest.checkEmail(7, "x@y.com").toUrl(API_URL, "ab+c"));
+        assertEquals(API_URL + "?f=fetch_email&email_id=42", ApiRequest.fetchEmail(42).toUrl(API_URL, null));
+    }
+
+    @Test
+    public void logsParametersWithoutSharingState() {
+        ApiRequest request = ApiRequest.delEmail(List.of(1, 2));
+        JSONObject json = request.toJson("token");
+        assertEquals("del_email", json.getString("f"));
+        assertEquals("token", json.getString("sid_token"));
+        JSONArray ids = json.getJSONArray("email_ids[]");
+        assertEquals(2, ids.length());
+        ids.put(3); // Must not leak into the request
+        assertEquals(2, request.toJson(null).getJSONArray("email_ids[]").length());
+        assertNotSame(json, request.toJson(null));
+    }
+
+    @Test
+    public void reusesConstantRequests() {
+        assertSame(ApiRequest.getEmailAddress(), ApiRequest.getEmailAddress());
+        assertEquals("?f=get_email_address&lang=en", ApiRequest.getEmailAddress().toString());
+        assertEquals(ApiRequest.Function.GET_EMAIL_LIST, ApiRequest.getEmailList(20).getFunction());
+    }
+
+    @Test
+    public void escapesAttachmentLink() {
+        assertEquals("https://www.guerrillamail.com/inbox?get_att&email_id=42&part_id=2&sid_token=ab%2Bc%26d%3De",
+                GuerrillaMailApi.attachmentUrl(42, "2", "ab+c&d=e"));
+        assertEquals("https://www.guerrillamail.com/inbox?get_att&email_id=42&part_id=1.2", GuerrillaMailApi.attachmentUrl(42, "1.2", null));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void keepsUrlBasedRequestJson() {
+        String url = ApiRequest.delEmail(List.of(1, 2)).toUrl(API_URL, "ab+c");
+        JSONObject json = new JSONObject(GuerrillaMailApi.getRequestAsJson(url, Map.of("Accept", List.of("application/json")), "GET"));
+        assertEquals(API_URL, json.getString("base_url"));
+        assertEquals("del_email", json.getString("f"));
+        assertEquals("ab+c", json.getString("sid_token")); // Decoded
+        assertEquals(List.of("1", "2"), json.getJSONArray("email_ids[]").toList());
+        assertEquals("GET", json.getString("method"));
+    }
+}
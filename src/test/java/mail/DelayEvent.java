@@ -0,0 +1,28 @@
+package mail;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Событие JFR для паузы в {@link GuerrillaMailApi}: запрошенная длительность и фактическая (при воспроизведении она меньше).</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>JFR event for a pause in {@link GuerrillaMailApi}: the requested duration and the actual one (shorter on replay).</code><br>
+ * </p>
+ */
+@Name("mail.Delay")
+@Label("Delay")
+@Category({"Guerrilla Mail", "Inbox"})
+@Description("A pause between email checks")
+@StackTrace(false)
+class DelayEvent extends Event {
+    @Label("Requested")
+    @Timespan(Timespan.MILLISECONDS)
+    long requested;
+}
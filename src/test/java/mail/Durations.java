@@ -0,0 +1,47 @@
+package mail;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Разбор длительностей из параметров командной строки и запросов: 500ms, 30s, 5m, 1h; число без суффикса — секунды.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Parses durations from command-line options and requests: 500ms, 30s, 5m, 1h; a bare number means seconds.</code><br>
+ * </p>
+ */
+final class Durations {
+    private Durations() {
+    }
+
+    /**
+     * @param value the duration text (текст длительности)
+     * @return the parsed duration <code>(разобранная длительность)</code>
+     * @throws IllegalArgumentException if the value is blank, not a number or has an unknown unit
+     *                                  (если значение пустое, не число или с неизвестной единицей)
+     */
+    static Duration parse(String value) {
+        String text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Empty duration");
+        }
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        if (Character.isDigit(text.charAt(text.length() - 1))) {
+            return Duration.ofSeconds(Long.parseLong(text));
+        }
+        long amount = Long.parseLong(text.substring(0, text.length() - 1));
+        switch (text.charAt(text.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            default:
+                throw new IllegalArgumentException("Unknown duration unit: " + value);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Ленивый постраничный обход ящика через <code>get_email_list</code>.</code><br>
+ * Страницы запрашиваются по мере чтения; пока вызывающий обрабатывает текущую страницу, следующая уже загружается
+ * в фоне. Если вызывающий останавливается раньше (например, <code>findFirst</code>), дальнейшие страницы не запрашиваются,
+ * а закрытие потока отменяет уже начатую предзагрузку. Письма, сдвинутые новыми письмами на следующую страницу,
+ * выдаются только один раз.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Lazy paginated walk over an inbox with <code>get_email_list</code>.</code><br>
+ * Pages are requested as they are consumed; while the caller processes the current page, the next one is already
+ * loading in the background. If the caller stops early (for example <code>findFirst</code>), no further pages are
+ * requested, and closing the stream cancels a prefetch already started. Emails pushed to the next page by new mail are
+ * returned only once.<br>
+ * </p>
+ */
+public final class EmailListing implements Iterator<EmailSummary>, AutoCloseable {
+    private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(InboxLifecycleManager.daemonThreads("mail-list-prefetch"));
+
+    private final PageFetcher fetcher;
+    private final Set<Integer> seen = new HashSet<>();
+    private JSONArray page = new JSONArray();
+    private int index;
+    private int nextOffset;
+    private Future<JSONObject> nextPage;
+    private EmailSummary next;
+
+    /**
+     * Requests one page, e.g. <code>get_email_list&amp;offset=...</code> (запрашивает одну страницу)
+     */
+    public interface PageFetcher {
+        JSONObject fetch(int offset) throws Exception;
+    }
+
+    private EmailListing(PageFetcher fetcher) {
+        this.fetcher = fetcher;
+        this.nextPage = prefetch(0);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Возвращает ленивый поток писем; первая страница начинает загружаться сразу.</code><br>
+     * Ошибки запроса страницы выбрасываются при чтении как {@link IllegalStateException}.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Returns a lazy stream of emails; the first page starts loading right away.</code><br>
+     * Page request failures are thrown while reading as {@link IllegalStateException}.<br>
+     * </p>
+     *
+     * @param fetcher requests the page at an offset (запрашивает страницу по смещению)
+     * @return the stream, to be closed if not read to the end <code>(поток; закрыть, если он прочитан не до конца)</code>
+     */
+    public static Stream<EmailSummary> stream(PageFetcher fetcher) {
+        EmailListing listing = new EmailListing(fetcher);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listing, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false)
+                .onClose(listing::close);
+    }
+
+    private Future<JSONObject> prefetch(int offset) {
+        return PREFETCH.submit(() -> fetcher.fetch(offset));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null) {
+            if (index < page.length()) {
+                EmailSummary summary = EmailSummary.fromJson(page.getJSONObject(index++));
+                if (seen.add(summary.getMailId())) {
+                    next = summary;
+                }
+            } else if (nextPage == null || !loadNextPage()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public EmailSummary next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        EmailSummary summary = next;
+        next = null;
+        return summary;
+    }
+
+    private boolean loadNextPage() {
+        JSONObject response;
+        try {
+            response = nextPage.get();
+        } catch (ExecutionException | CancellationException e) {
+            nextPage = null;
+            throw new IllegalStateException("Failed to fetch email list at offset " + nextOffset, e.getCause() != null ? e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while fetching email list at offset " + nextOffset, e);
+        }
+        if (!response.has("list")) {
+            nextPage = null;
+            throw new IllegalStateException("Failed to fetch email list: " + response);
+        }
+        page = response.getJSONArray("list");
+        index = 0;
+        nextOffset += page.length();
+        int count = response.optInt("count", Integer.MAX_VALUE); // Total emails in the inbox, if reported
+        // Start the next page now, so its latency overlaps with consuming this one
+        nextPage = page.isEmpty() || nextOffset >= count ? null : prefetch(nextOffset);
+        return !page.isEmpty();
+    }
+
+    /**
+     * Cancels the prefetch of the next page, if any, interrupting a request in progress (отменяет предзагрузку следующей страницы)
+     */
+    @Override
+    public void close() {
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link EmailListing}: обход страниц, повторы при сдвиге, ранняя остановка и отмена предзагрузки.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link EmailListing}: page walk, duplicates on a shift, early stop and prefetch cancellation.</code><br>
+ * </p>
+ */
+public class EmailListingTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void walksAllPagesUpToCount() {
+        List<Integer> offsets = new CopyOnWriteArrayList<>();
+        EmailListing.PageFetcher fetcher = offset -> {
+            offsets.add(offset);
+            return page(7, range(7 - offset, Math.max(7 - offset - 2, 1)));
+        };
+        try (Stream<EmailSummary> emails = EmailListing.stream(fetcher)) {
+            assertEquals(List.of(7, 6, 5, 4, 3, 2, 1), ids(emails));
+        }
+        assertEquals(List.of(0, 3, 6), offsets); // No request past count
+    }
+
+    @Test
+    public void stopsOnEmptyPageWithoutCount() {
+        List<Integer> offsets = new CopyOnWriteArrayList<>();
+        EmailListing.PageFetcher fetcher = offset -> {
+            offsets.add(offset);
+            return page(-1, offset < 4 ? range(100 - offset, 99 - offset) : new int[0]);
+        };
+        try (Stream<EmailSummary> emails = EmailListing.stream(fetcher)) {
+            assertEquals(List.of(100, 99, 98, 97), ids(emails));
+        }
+        assertEquals(List.of(0, 2, 4), offsets);
+    }
+
+    @Test
+    public void skipsEmailsShiftedToTheNextPage() {
+        // Two new emails arrived after the first page, pushing 8 and 7 to the second one
+        EmailListing.PageFetcher fetcher = offset -> offset == 0 ? page(5, 10, 9, 8) : page(7, 8, 7, 6);
+        try (Stream<EmailSummary> emails = EmailListing.stream(fetcher)) {
+            assertEquals(List.of(10, 9, 8, 7, 6), ids(emails));
+        }
+    }
+
+    @Test
+    public void findFirstDoesNotWalkFurther() {
+        List<Integer> offsets = new CopyOnWriteArrayList<>();
+        EmailListing.PageFetcher fetcher = offset -> {
+            offsets.add(offset);
+            return page(100, range(100 - offset, 98 - offset));
+        };
+        Optional<EmailSummary> first;
+        try (Stream<EmailSummary> emails = EmailListing.stream(fetcher)) {
+            first = emails.filter(email -> email.getMailId() % 2 == 1).findFirst();
+        }
+        assertEquals(99, first.orElseThrow().getMailId());
+        assertFalse(offsets.contains(6), "requested " + offsets); // At most the prefetch of the second page
+        assertTrue(offsets.size() <= 2, "requested " + offsets);
+    }
+
+    @Test
+    public void closeInterruptsPendingPrefetch() throws InterruptedException {
+        CountDownLatch prefetchStarted = new CountDownLatch(1);
+        CountDownLatch prefetchInterrupted = new CountDownLatch(1);
+        EmailListing.PageFetcher fetcher = offset -> {
+            if (offset == 0) {
+                return page(10, 10, 9);
+            }
+            prefetchStarted.countDown();
+            try {
+                new CountDownLatch(1).await(); // A page request that never answers
+            } catch (InterruptedException e) {
+                prefetchInterrupted.countDown();
+                throw e;
+            }
+            return page(10);
+        };
+        Stream<EmailSummary> emails = EmailListing.stream(fetcher);
+        assertEquals(10, emails.iterator().next().getMailId());
+        assertTrue(prefetchStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        emails.close();
+        assertTrue(prefetchInterrupted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), "prefetch was not cancelled");
+    }
+
+    @Test
+    public void reportsFailedPages() {
+        EmailListing.PageFetcher failing = offset -> {
+            throw new IOException("HTTP 502");
+        };
+        try (Stream<EmailSummary> emails = EmailListing.stream(failing)) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> ids(emails));
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+        try (Stream<EmailSummary> emails = EmailListing.stream(offset -> new JSONObject().put("error", "Bad sid_token"))) {
+            assertThrows(IllegalStateException.class, () -> ids(emails));
+        }
+    }
+
+    private static List<Integer> ids(Stream<EmailSummary> emails) {
+        return emails.map(EmailSummary::getMailId).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the IDs from <code>first</code> down to <code>last</code> inclusive, newest first as the service lists them
+     */
+    private static int[] range(int first, int last) {
+        int[] ids = new int[Math.max(first - last + 1, 0)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = first - i;
+        }
+        return ids;
+    }
+
+    /**
+     * @param count the total reported by the service, negative to leave it out (всего писем, отрицательное — не указывать)
+     */
+    private static JSONObject page(int count, int... ids) {
+        JSONArray list = new JSONArray();
+        for (int id : ids) {
+            list.put(new JSONObject().put("mail_id", id).put("mail_from", "a@b.com").put("mail_subject", "Mail " + id));
+        }
+        JSONObject response = new JSONObject().put("list", list);
+        return count < 0 ? response : response.put("count", count);
+    }
+}
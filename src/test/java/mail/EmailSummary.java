@@ -0,0 +1,71 @@
+package mail;
+
+import org.json.JSONObject;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Краткие сведения о письме из списка <code>get_email_list</code> или <code>check_email</code>, без тела письма.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Summary of an email from a <code>get_email_list</code> or <code>check_email</code> listing, without the body.</code><br>
+ * </p>
+ */
+public final class EmailSummary {
+    private final int mailId;
+    private final String from;
+    private final String subject;
+    private final String excerpt;
+    private final long timestamp;
+    private final boolean read;
+
+    public EmailSummary(int mailId, String from, String subject, String excerpt, long timestamp, boolean read) {
+        this.mailId = mailId;
+        this.from = from;
+        this.subject = subject;
+        this.excerpt = excerpt;
+        this.timestamp = timestamp;
+        this.read = read;
+    }
+
+    /**
+     * @param emailItem a list item (элемент списка)
+     * @return the summary <code>(краткие сведения)</code>
+     */
+    public static EmailSummary fromJson(JSONObject emailItem) {
+        return new EmailSummary(emailItem.getInt("mail_id"), emailItem.optString("mail_from", ""),
+                emailItem.optString("mail_subject", ""), emailItem.optString("mail_excerpt", ""),
+                emailItem.optLong("mail_timestamp", 0), emailItem.optInt("mail_read", 0) != 0);
+    }
+
+    public int getMailId() {
+        return mailId;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getExcerpt() {
+        return excerpt;
+    }
+
+    /**
+     * @return the receive time in seconds since the epoch (время получения в секундах с начала эпохи)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isRead() {
+        return read;
+    }
+
+    @Override
+    public String toString() {
+        return mailId + " " + from + ": " + subject;
+    }
+}
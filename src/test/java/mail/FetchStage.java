@@ -0,0 +1,232 @@
+package mail;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Параллельная загрузка писем из одного списка <code>check_email</code> с ограничением параллелизма.</code><br>
+ * Каждое письмо загружается отдельной задачей, но одновременно выполняется не больше <code>sessionParallelism</code>
+ * запросов на сеанс и не больше <code>globalParallelism</code> запросов на весь процесс. Результаты передаются
+ * в вызывающий поток в порядке списка, по порядку <code>mail_id</code> или по мере готовности — как выберет вызывающий.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Parallel fetching of the emails of one <code>check_email</code> listing with bounded parallelism.</code><br>
+ * Every email is fetched by its own task, but at most <code>sessionParallelism</code> requests run at once per session
+ * and at most <code>globalParallelism</code> per process. Results are handed to the calling thread in
+ * listing order, <code>mail_id</code> order or as they complete, whichever the caller picks.<br>
+ * </p>
+ * <p>
+ * Limits of the shared stage: <code>-Dguerrillamail.fetch.globalParallelism</code> (8) and
+ * <code>-Dguerrillamail.fetch.sessionParallelism</code> (4).
+ */
+public class FetchStage {
+    private static final FetchStage SHARED = new FetchStage(
+            Integer.getInteger("guerrillamail.fetch.globalParallelism", 8),
+            Integer.getInteger("guerrillamail.fetch.sessionParallelism", 4));
+
+    private final Semaphore globalPermits;
+    private final int sessionParallelism;
+    private final ConcurrentHashMap<String, SessionLimit> sessionLimits = new ConcurrentHashMap<>(); // Only sessions being fetched
+    private final ExecutorService pool = Executors.newCachedThreadPool(InboxLifecycleManager.daemonThreads("mail-fetch"));
+
+    /**
+     * Order in which fetched emails are delivered (порядок выдачи загруженных писем)
+     */
+    public enum Order {
+        /**
+         * The order of the listing, each email as soon as it and all earlier ones are fetched (в порядке списка)
+         */
+        LISTING,
+        /**
+         * Ascending <code>mail_id</code>, each email as soon as it and all earlier ones are fetched (по возрастанию mail_id)
+         */
+        MAIL_ID,
+        /**
+         * As soon as each fetch completes (по мере завершения загрузки)
+         */
+        COMPLETION
+    }
+
+    /**
+     * Fetches one email, e.g. with <code>fetch_email</code> (загружает одно письмо)
+     */
+    public interface Fetcher {
+        JSONObject fetch(int mailId) throws Exception;
+    }
+
+    /**
+     * Receives fetched emails on the calling thread (получает загруженные письма в вызывающем потоке)
+     */
+    public interface Sink {
+        /**
+         * @param mailId the email ID (ID письма)
+         * @param email  the fetched email, or null if the fetch failed (загруженное письмо или null при ошибке)
+         * @param error  the failure, or null (ошибка или null)
+         * @return false to stop and cancel the remaining fetches (false, чтобы остановиться и отменить остальные загрузки)
+         */
+        boolean accept(int mailId, JSONObject email, Exception error);
+    }
+
+    /**
+     * @param globalParallelism  the maximum number of fetches in flight in total (максимум одновременных загрузок всего)
+     * @param sessionParallelism the maximum number of fetches in flight per session (максимум одновременных загрузок на сеанс)
+     */
+    public FetchStage(int globalParallelism, int sessionParallelism) {
+        if (globalParallelism < 1 || sessionParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.globalPermits = new Semaphore(globalParallelism);
+        this.sessionParallelism = sessionParallelism;
+    }
+
+    /**
+     * @return the stage shared by the client (общий этап загрузки клиента)
+     */
+    public static FetchStage shared() {
+        return SHARED;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Загружает все письма списка параллельно и передаёт их в <code>sink</code> в выбранном порядке.</code><br>
+     * Метод возвращается, когда все письма переданы или <code>sink</code> вернул false; в последнем случае
+     * оставшиеся загрузки отменяются.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Fetches every email of a listing in parallel and hands them to <code>sink</code> in the chosen order.</code><br>
+     * The method returns when every email was delivered or <code>sink</code> returned false; in the latter case the
+     * remaining fetches are cancelled.<br>
+     * </p>
+     *
+     * @param sessionKey identifies the session the per-session limit applies to, e.g. its PHPSESSID; must not change
+     *                   when the sid_token rotates (идентификатор сеанса для лимита на сеанс, например PHPSESSID)
+     * @param mailIds    the emails to fetch (письма для загрузки)
+     * @param order      the delivery order (порядок выдачи)
+     * @param fetcher    fetches one email (загружает одно письмо)
+     * @param sink       receives the results (получает результаты)
+     * @throws InterruptedException if the calling thread is interrupted (если вызывающий поток прерван)
+     */
+    public void fetchAll(String sessionKey, List<Integer> mailIds, Order order, Fetcher fetcher, Sink sink) throws InterruptedException {
+        Semaphore sessionLimit = retain(sessionKey);
+        List<Integer> ids = new ArrayList<>(mailIds);
+        if (order == Order.MAIL_ID) {
+            ids.sort(null);
+        }
+        BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+        List<Future<?>> tasks = new ArrayList<>(ids.size());
+        try {
+            for (int mailId : ids) {
+                tasks.add(pool.submit(() -> {
+                    Result result = null;
+                    try {
+                        result = fetch(mailId, sessionLimit, fetcher);
+                    } catch (Throwable t) {
+                        result = new Result(mailId, null, new ExecutionException("Fetch of email " + mailId + " failed", t));
+                        throw t;
+                    } finally {
+                        completed.add(result); // Always queued, otherwise completed.take() would wait forever
+                    }
+                }));
+            }
+            Map<Integer, Result> early = new HashMap<>(); // Fetched ahead of an earlier mail_id
+            int next = 0;
+            while (next < ids.size()) {
+                Result result = completed.take();
+                if (order == Order.COMPLETION) {
+                    next++;
+                    if (!sink.accept(result.mailId, result.email, result.error)) {
+                        return;
+                    }
+                    continue;
+                }
+                early.put(result.mailId, result);
+                while (next < ids.size() && early.containsKey(ids.get(next))) {
+                    Result inOrder = early.remove(ids.get(next++));
+                    if (!sink.accept(inOrder.mailId, inOrder.email, inOrder.error)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            release(sessionKey);
+        }
+    }
+
+    private Semaphore retain(String sessionKey) {
+        return sessionLimits.compute(sessionKey, (key, limit) -> {
+            SessionLimit retained = limit != null ? limit : new SessionLimit(sessionParallelism);
+            retained.users++;
+            return retained;
+        }).permits;
+    }
+
+    private void release(String sessionKey) {
+        // Dropped once no fetchAll of the session is running, so the map does not grow with every session
+        sessionLimits.computeIfPresent(sessionKey, (key, limit) -> --limit.users == 0 ? null : limit);
+    }
+
+    /**
+     * @return the number of sessions with a fetch in progress (число сеансов, для которых идёт загрузка)
+     */
+    int activeSessions() {
+        return sessionLimits.size();
+    }
+
+    private Result fetch(int mailId, Semaphore sessionLimit, Fetcher fetcher) {
+        try {
+            sessionLimit.acquire(); // Per-session first, so a busy session does not hold global permits while waiting
+            try {
+                globalPermits.acquire();
+                try {
+                    return new Result(mailId, fetcher.fetch(mailId), null);
+                } finally {
+                    globalPermits.release();
+                }
+            } finally {
+                sessionLimit.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(mailId, null, e);
+        } catch (Exception e) {
+            return new Result(mailId, null, e);
+        }
+    }
+
+    private static final class SessionLimit {
+        private final Semaphore permits;
+        private int users; // Guarded by the map entry, see retain and release
+
+        SessionLimit(int parallelism) {
+            this.permits = new Semaphore(parallelism);
+        }
+    }
+
+    private static final class Result {
+        private final int mailId;
+        private final JSONObject email;
+        private final Exception error;
+
+        Result(int mailId, JSONObject email, Exception error) {
+            this.mailId = mailId;
+            this.email = email;
+            this.error = error;
+        }
+    }
+}
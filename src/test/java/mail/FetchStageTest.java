@@ -0,0 +1,222 @@
+package mail;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link FetchStage}: порядок выдачи, лимиты параллелизма, остановка и ошибки загрузки.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link FetchStage}: delivery order, parallelism limits, stopping and fetch failures.</code><br>
+ * </p>
+ */
+public class FetchStageTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final List<Integer> LISTING = List.of(9, 3, 7, 1, 5); // Newest first is not sorted either way
+
+    @Test
+    public void deliversInListingOrder() throws InterruptedException {
+        FetchStage stage = new FetchStage(8, 8);
+        List<Integer> delivered = new ArrayList<>();
+        stage.fetchAll("session", LISTING, FetchStage.Order.LISTING, slowFirst(), collect(delivered));
+        assertEquals(LISTING, delivered);
+        assertEquals(0, stage.activeSessions());
+    }
+
+    @Test
+    public void deliversInMailIdOrder() throws InterruptedException {
+        FetchStage stage = new FetchStage(8, 8);
+        List<Integer> delivered = new ArrayList<>();
+        stage.fetchAll("session", LISTING, FetchStage.Order.MAIL_ID, slowFirst(), collect(delivered));
+        assertEquals(List.of(1, 3, 5, 7, 9), delivered);
+    }
+
+    @Test
+    public void deliversInCompletionOrder() throws InterruptedException {
+        FetchStage stage = new FetchStage(8, 8);
+        CountDownLatch secondDelivered = new CountDownLatch(1);
+        List<Integer> delivered = new ArrayList<>();
+        // The first email waits until the second one has reached the sink, so it must be delivered last
+        FetchStage.Fetcher fetcher = mailId -> {
+            if (mailId == 1) {
+                assertTrue(secondDelivered.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            }
+            return email(mailId);
+        };
+        stage.fetchAll("session", List.of(1, 2), FetchStage.Order.COMPLETION, fetcher, (mailId, email, error) -> {
+            delivered.add(mailId);
+            secondDelivered.countDown();
+            return true;
+        });
+        assertEquals(List.of(2, 1), delivered);
+    }
+
+    @Test
+    public void boundsFetchesPerSession() throws InterruptedException {
+        FetchStage stage = new FetchStage(8, 2);
+        ConcurrencyProbe probe = new ConcurrencyProbe();
+        stage.fetchAll("session", range(12), FetchStage.Order.COMPLETION, probe, (mailId, email, error) -> error == null);
+        assertEquals(12, probe.calls.get());
+        assertTrue(probe.max.get() <= 2, "per-session limit exceeded: " + probe.max.get());
+    }
+
+    @Test
+    public void boundsFetchesAcrossSessions() throws Exception {
+        FetchStage stage = new FetchStage(3, 8);
+        ConcurrencyProbe probe = new ConcurrencyProbe();
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int session = 0; session < 4; session++) {
+                String key = "session-" + session;
+                runs.add(callers.submit(() -> {
+                    stage.fetchAll(key, range(6), FetchStage.Order.MAIL_ID, probe, (mailId, email, error) -> error == null);
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(24, probe.calls.get());
+        assertTrue(probe.max.get() <= 3, "global limit exceeded: " + probe.max.get());
+        assertEquals(0, stage.activeSessions());
+    }
+
+    @Test
+    public void cancelsRemainingFetchesWhenSinkStops() throws InterruptedException {
+        FetchStage stage = new FetchStage(8, 8);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch cancelled = new CountDownLatch(2);
+        FetchStage.Fetcher fetcher = mailId -> {
+            if (mailId == 1) {
+                assertTrue(started.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)); // The others are in flight when the sink stops
+                return email(mailId);
+            }
+            started.countDown();
+            try {
+                new CountDownLatch(1).await(); // Never completes on its own
+                return email(mailId);
+            } catch (InterruptedException e) {
+                cancelled.countDown();
+                throw e;
+            }
+        };
+        List<Integer> delivered = new ArrayList<>();
+        assertTimeoutPreemptively(TIMEOUT, () -> stage.fetchAll("session", List.of(1, 2, 3), FetchStage.Order.LISTING, fetcher,
+                (mailId, email, error) -> !delivered.add(mailId)));
+        assertEquals(List.of(1), delivered);
+        assertTrue(cancelled.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS), "pending fetches were not interrupted");
+        assertEquals(0, stage.activeSessions());
+    }
+
+    @Test
+    public void reportsFailuresIncludingErrors() {
+        FetchStage stage = new FetchStage(8, 8);
+        FetchStage.Fetcher fetcher = mailId -> {
+            if (mailId == 2) {
+                throw new IOException("HTTP 500");
+            }
+            if (mailId == 3) {
+                throw new AssertionError("broken fetcher");
+            }
+            return email(mailId);
+        };
+        Map<Integer, Exception> errors = new HashMap<>();
+        List<Integer> delivered = new ArrayList<>();
+        assertTimeoutPreemptively(TIMEOUT, () -> stage.fetchAll("session", List.of(1, 2, 3, 4), FetchStage.Order.MAIL_ID, fetcher,
+                (mailId, email, error) -> {
+                    delivered.add(mailId);
+                    if (error != null) {
+                        assertNull(email);
+                        errors.put(mailId, error);
+                    }
+                    return true;
+                }));
+        assertEquals(List.of(1, 2, 3, 4), delivered);
+        assertEquals("HTTP 500", errors.get(2).getMessage());
+        assertInstanceOf(ExecutionException.class, errors.get(3));
+        assertInstanceOf(AssertionError.class, errors.get(3).getCause());
+        assertEquals(2, errors.size());
+        assertEquals(0, stage.activeSessions());
+    }
+
+    /**
+     * Fetches the first listed email last, so any order but completion order has to wait for it (первое письмо загружается последним)
+     */
+    private static FetchStage.Fetcher slowFirst() {
+        CountDownLatch othersDone = new CountDownLatch(LISTING.size() - 1);
+        return mailId -> {
+            if (mailId == LISTING.get(0)) {
+                assertTrue(othersDone.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            } else {
+                othersDone.countDown();
+            }
+            return email(mailId);
+        };
+    }
+
+    private static FetchStage.Sink collect(List<Integer> delivered) {
+        return (mailId, email, error) -> {
+            assertNull(error);
+            assertEquals(mailId, email.getInt("mail_id"));
+            return delivered.add(mailId);
+        };
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= count; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static JSONObject email(int mailId) {
+        return new JSONObject().put("mail_id", mailId);
+    }
+
+    /**
+     * Records the highest number of fetches running at once (запоминает наибольшее число одновременных загрузок)
+     */
+    private static final class ConcurrencyProbe implements FetchStage.Fetcher {
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger max = new AtomicInteger();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public JSONObject fetch(int mailId) throws Exception {
+            calls.incrementAndGet();
+            max.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5); // Keeps fetches overlapping; the assertions do not depend on the timing
+                return email(mailId);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package mail;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Локальное файловое хранилище снимков сеансов, общее для нескольких JVM на одной машине.</code><br>
+ * Каждый адрес хранится в отдельном JSON-файле каталога. Доступ к адресу защищён блокировкой файла
+ * (<code>FileChannel.lock</code>) между процессами и {@link ReentrantLock} между потоками, поэтому
+ * {@link #getOrCreate} создаёт сеанс только один раз. Блокировки разбиты на фиксированное число полос
+ * (<code>stripe-NN.lock</code>), чтобы каталог не рос на файл блокировки с каждым адресом. Запись выполняется
+ * атомарной заменой файла.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Local file-based store of session snapshots, shared by several JVMs on one machine.</code><br>
+ * Every address is kept in its own JSON file in the directory. Access to an address is guarded by a file lock
+ * (<code>FileChannel.lock</code>) across processes and by a {@link ReentrantLock} across threads, so
+ * {@link #getOrCreate} creates the session only once. Locks are striped over a fixed number of files
+ * (<code>stripe-NN.lock</code>), so the directory does not grow by a lock file per address. Writes replace the file
+ * atomically.<br>
+ * </p>
+ */
+public class FileSessionStore implements SessionStore {
+    private static final Logger logger = Logger.getLogger(FileSessionStore.class.getName());
+    private static final int LOCK_STRIPES = 32;
+
+    private final Path directory;
+    private final ReentrantLock[] threadLocks = new ReentrantLock[LOCK_STRIPES];
+
+    /**
+     * @param directory the directory holding the snapshots, created if missing (каталог снимков, создаётся при отсутствии)
+     * @throws IOException if the directory could not be created (если каталог не удалось создать)
+     */
+    public FileSessionStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            threadLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return the store in the <code>guerrillamail.sessionStore</code> directory, or null if the property is not set
+     * (хранилище в каталоге из свойства <code>guerrillamail.sessionStore</code> или null, если свойство не задано)
+     */
+    static SessionStore fromSystemProperties() {
+        String directory = System.getProperty("guerrillamail.sessionStore");
+        if (directory == null || directory.isBlank()) {
+            return null;
+        }
+        try {
+            return new FileSessionStore(Paths.get(directory));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open session store " + directory, e);
+        }
+    }
+
+    @Override
+    public Optional<SessionSnapshot> load(String emailAddress) throws IOException {
+        return io(() -> locked(emailAddress, () -> read(emailAddress)));
+    }
+
+    @Override
+    public void save(SessionSnapshot snapshot) throws IOException {
+        io(() -> locked(snapshot.getEmailAddress(), () -> {
+            write(snapshot.getEmailAddress(), snapshot);
+            return null;
+        }));
+    }
+
+    @Override
+    public void remove(String emailAddress) throws IOException {
+        io(() -> locked(emailAddress, () -> Files.deleteIfExists(snapshotFile(emailAddress))));
+    }
+
+    @Override
+    public SessionSnapshot getOrCreate(String emailAddress, Callable<SessionSnapshot> creator) throws Exception {
+        return locked(emailAddress, () -> {
+            Optional<SessionSnapshot> stored = read(emailAddress);
+            if (stored.isPresent()) {
+                return stored.get();
+            }
+            SessionSnapshot created = creator.call();
+            write(emailAddress, created);
+            return created;
+        });
+    }
+
+    private <T> T locked(String emailAddress, Callable<T> action) throws Exception {
+        // String.hashCode is specified, so every JVM maps an address to the same stripe
+        int stripe = Math.floorMod(fileName(emailAddress).hashCode(), LOCK_STRIPES);
+        ReentrantLock threadLock = threadLocks[stripe];
+        threadLock.lock();
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("stripe-%02d.lock", stripe)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return action.call();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            threadLock.unlock();
+        }
+    }
+
+    private Optional<SessionSnapshot> read(String emailAddress) throws IOException {
+        Path file = snapshotFile(emailAddress);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            SessionSnapshot snapshot = SessionSnapshot.fromJson(new JSONObject(Files.readString(file, StandardCharsets.UTF_8)));
+            if (!snapshot.isExpired()) {
+                return Optional.of(snapshot);
+            }
+        } catch (JSONException e) {
+            logger.log(Level.WARNING, "Discarding unreadable session snapshot " + file, e);
+        }
+        Files.deleteIfExists(file);
+        return Optional.empty();
+    }
+
+    private void write(String emailAddress, SessionSnapshot snapshot) throws IOException {
+        Path file = snapshotFile(emailAddress);
+        Path temp = Files.createTempFile(directory, fileName(emailAddress), ".tmp");
+        Files.writeString(temp, snapshot.toJson().toString(), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path snapshotFile(String emailAddress) {
+        return directory.resolve(fileName(emailAddress) + ".json");
+    }
+
+    private static String fileName(String emailAddress) {
+        return emailAddress.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9@._-]", "_");
+    }
+
+    private static <T> T io(Callable<T> action) throws IOException {
+        try {
+            return action.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
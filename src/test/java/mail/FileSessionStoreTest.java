@@ -0,0 +1,218 @@
+package mail;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link FileSessionStore} и реализации {@link SessionStore#getOrCreate} по умолчанию.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link FileSessionStore} and the default {@link SessionStore#getOrCreate}.</code><br>
+ * </p>
+ */
+public class FileSessionStoreTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void roundTripsSnapshots() throws Exception {
+        FileSessionStore store = new FileSessionStore(directory);
+        SessionSnapshot snapshot = snapshot("Round.Trip@guerrillamailblock.com", "sid-1");
+        store.save(snapshot);
+
+        SessionSnapshot loaded = store.load("round.trip@guerrillamailblock.com").orElseThrow(); // Addresses ignore case
+        assertEquals(snapshot.getEmailAddress(), loaded.getEmailAddress());
+        assertEquals("sid-1", loaded.getSidToken());
+        assertEquals("php-sid-1", loaded.getPhpSessId());
+        assertEquals(snapshot.getExpiresAt(), loaded.getExpiresAt());
+        // Another store on the same directory, like another JVM, sees the same snapshot
+        assertEquals("sid-1", new FileSessionStore(directory).load(snapshot.getEmailAddress()).orElseThrow().getSidToken());
+
+        store.save(snapshot("Round.Trip@guerrillamailblock.com", "sid-2"));
+        assertEquals("sid-2", store.load(snapshot.getEmailAddress()).orElseThrow().getSidToken());
+        store.remove(snapshot.getEmailAddress());
+        assertEquals(Optional.empty(), store.load(snapshot.getEmailAddress()));
+    }
+
+    @Test
+    public void restoresSessionWithoutCursor() {
+        SessionSnapshot snapshot = SessionSnapshot.fromJson(new JSONObject()
+                .put("email_addr", "old@guerrillamailblock.com").put("sid_token", "sid").put("seq", 1234)
+                .put("expires_at", System.currentTimeMillis() + HOUR)); // Written before seq was dropped
+        assertFalse(snapshot.toJson().has("seq"));
+        GuerrillaSession session = snapshot.restore();
+        assertEquals("sid", session.getSidToken());
+        assertNull(session.getPhpSessId());
+        assertEquals(0, session.getSeq());
+        assertEquals(snapshot.getExpiresAt(), session.getExpiresAt());
+    }
+
+    @Test
+    public void discardsExpiredAndUnreadableSnapshots() throws Exception {
+        FileSessionStore store = new FileSessionStore(directory);
+        store.save(new SessionSnapshot("expired@guerrillamailblock.com", "sid", "php", System.currentTimeMillis() - 1));
+        assertEquals(Optional.empty(), store.load("expired@guerrillamailblock.com"));
+        assertEquals(List.of(), snapshotFiles()); // Deleted on read
+
+        Files.writeString(directory.resolve("broken@guerrillamailblock.com.json"), "{\"email_addr\":", StandardCharsets.UTF_8);
+        assertEquals(Optional.empty(), store.load("broken@guerrillamailblock.com"));
+        assertEquals(List.of(), snapshotFiles());
+
+        AtomicInteger created = new AtomicInteger();
+        store.save(new SessionSnapshot("renewed@guerrillamailblock.com", "old", "php", System.currentTimeMillis() - 1));
+        SessionSnapshot renewed = store.getOrCreate("renewed@guerrillamailblock.com", () -> {
+            created.incrementAndGet();
+            return snapshot("renewed@guerrillamailblock.com", "new");
+        });
+        assertEquals("new", renewed.getSidToken());
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void readersNeverSeePartialWrites() throws Exception {
+        FileSessionStore store = new FileSessionStore(directory);
+        String address = "atomic@guerrillamailblock.com";
+        String longToken = "x".repeat(64 * 1024); // Large enough that a non-atomic write would be seen half done
+        store.save(snapshot(address, longToken + 0));
+        Path file = directory.resolve(address + ".json");
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writes = writer.submit(() -> {
+                try {
+                    for (int i = 1; i <= 200; i++) {
+                        store.save(snapshot(address, longToken + i));
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                return null;
+            });
+            int reads = 0;
+            while (writing.get() || reads == 0) {
+                // Read the file directly, without the store's lock, like a process that ignores it
+                JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+                assertTrue(json.getString("sid_token").startsWith(longToken));
+                reads++;
+            }
+            writes.get(10, TimeUnit.SECONDS);
+        } finally {
+            writer.shutdownNow();
+        }
+        assertEquals(longToken + 200, store.load(address).orElseThrow().getSidToken());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(), files.filter(path -> path.toString().endsWith(".tmp")).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void concurrentGetOrCreateCreatesOnce() throws Exception {
+        FileSessionStore store = new FileSessionStore(directory);
+        int threads = 8;
+        AtomicInteger created = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<String> tokens = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> calls = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                calls.add(executor.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    tokens.add(store.getOrCreate("shared@guerrillamailblock.com",
+                            () -> snapshot("shared@guerrillamailblock.com", "sid-" + created.incrementAndGet())).getSidToken());
+                    return null;
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, created.get());
+        assertEquals(threads, tokens.stream().filter("sid-1"::equals).count());
+        assertEquals(List.of("shared@guerrillamailblock.com.json"), snapshotFiles());
+    }
+
+    @Test
+    public void defaultGetOrCreateLoadsThenSaves() throws Exception {
+        MapSessionStore store = new MapSessionStore();
+        AtomicInteger created = new AtomicInteger();
+        SessionSnapshot first = store.getOrCreate("spi@guerrillamailblock.com", () -> {
+            created.incrementAndGet();
+            return snapshot("spi@guerrillamailblock.com", "sid-1");
+        });
+        assertSame(first, store.snapshots.get("spi@guerrillamailblock.com"));
+        SessionSnapshot second = store.getOrCreate("spi@guerrillamailblock.com", () -> {
+            created.incrementAndGet();
+            return snapshot("spi@guerrillamailblock.com", "sid-2");
+        });
+        assertSame(first, second);
+        assertEquals(1, created.get());
+    }
+
+    private List<String> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).filter(name -> name.endsWith(".json")).collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    private static SessionSnapshot snapshot(String emailAddress, String sidToken) {
+        return new SessionSnapshot(emailAddress, sidToken, "php-" + sidToken, System.currentTimeMillis() + HOUR);
+    }
+
+    /**
+     * A store with only the required methods, so {@link SessionStore#getOrCreate} is the interface default
+     */
+    private static final class MapSessionStore implements SessionStore {
+        private final Map<String, SessionSnapshot> snapshots = new HashMap<>();
+
+        @Override
+        public Optional<SessionSnapshot> load(String emailAddress) {
+            return Optional.ofNullable(snapshots.get(emailAddress));
+        }
+
+        @Override
+        public void save(SessionSnapshot snapshot) {
+            snapshots.put(snapshot.getEmailAddress(), snapshot);
+        }
+
+        @Override
+        public void remove(String emailAddress) {
+            snapshots.remove(emailAddress);
+        }
+    }
+}
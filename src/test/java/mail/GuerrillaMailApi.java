@@ -3,18 +3,39 @@ package mail;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.parallel.ResourceLock;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * <strong>Русский:</strong><br>
@@ -33,9 +54,17 @@ import java.util.logging.Logger;
  */
 public class GuerrillaMailApi {
     private static final Logger logger = Logger.getLogger(GuerrillaMailApi.class.getName());
-    private static final String API_URL = "https://api.guerrillamail.com/ajax.php";
-    private static String PHPSESSID = null; // Needed to store the PHP session ID to access the API
-    private static String sidToken = null; // Needed to store the session token to access the API
+    static final String STATIC_SESSION = "mail.GuerrillaMailApi.session"; // Lock for tests that use the static PHPSESSID and sid_token
+    private static volatile String API_URL = System.getProperty("guerrillamail.apiUrl", "https://api.guerrillamail.com/ajax.php"); // Can point to a local stub
+    private static final String ATTACHMENT_URL = "https://www.guerrillamail.com/inbox?get_att&email_id=";
+    private static volatile String PHPSESSID = null; // Needed to store the PHP session ID to access the API
+    private static volatile String sidToken = null; // Needed to store the session token to access the API
+    private static volatile String inboxAddress = null; // Address of the static session, its emails are indexed under it
+    private static final SingleFlight<JSONObject> IN_FLIGHT_CALLS = new SingleFlight<>(); // Shares identical concurrent calls
+    private static volatile Transport transport = RecordReplayTransport.fromSystemProperties(Transport.LIVE); // Live, record or replay
+    private static volatile SessionStore sessionStore = FileSessionStore.fromSystemProperties(); // Shares sessions between JVMs, optional
+    private static volatile MailIndex mailIndex = null; // Indexes every received email for search, optional
+    private static volatile FetchStage.Order fetchOrder = FetchStage.Order.valueOf(System.getProperty("guerrillamail.fetch.order", "LISTING")); // Order of printed emails
     private static final String RESET = "\033[0m";
     private static final String RED = "\033[31m";
     private static final String GREEN = "\033[32m";
@@ -63,22 +92,168 @@ public class GuerrillaMailApi {
         System.out.println(color + key + ": " + RESET + "[" + value + "]");
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод выводит тело письма так же, как {@link #print(String, String, String)}, но частями, не собирая его в строку.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method prints an email body like {@link #print(String, String, String)}, but in chunks without building a string.</code><br>
+     * </p>
+     *
+     * @param color the color to print the key (цвет для вывода ключа)
+     * @param key   the key to print (ключ для вывода)
+     * @param body  the body to print (тело для вывода)
+     */
+    private static void printBody(String color, String key, MailBody body) {
+        System.out.print(color + key + ": " + RESET + "[" + RESET + "\n" + BLUE);
+        try {
+            body.writeTo(System.out);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to print email body", e);
+        }
+        System.out.println(RESET + "]");
+    }
+
     public static String getSidToken() {
         return sidToken;
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод задаёт sid_token статического сеанса.</code><br>
+     * Если токен изменился, записывается событие {@link SessionEvent} с действием refresh.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method sets the sid_token of the static session.</code><br>
+     * If the token changed, a {@link SessionEvent} with the refresh action is committed.<br>
+     * </p>
+     *
+     * @param sidToken the new sid_token (новый sid_token)
+     */
     public static void setSidToken(String sidToken) {
+        String previous = GuerrillaMailApi.sidToken;
         GuerrillaMailApi.sidToken = sidToken;
+        if (previous != null && sidToken != null && !previous.equals(sidToken)) {
+            commitSessionEvent(new SessionEvent(), SessionEvent.REFRESH, inboxAddress);
+        }
+    }
+
+    public static String getApiUrl() {
+        return API_URL;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод задаёт URL ajax.php, например локальной заглушки для нагрузочных тестов.</code><br>
+     * По умолчанию используется системное свойство <code>guerrillamail.apiUrl</code> или публичный API.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method sets the ajax.php URL, for example of a local stub for load tests.</code><br>
+     * Defaults to the <code>guerrillamail.apiUrl</code> system property or the public API.<br>
+     * </p>
+     *
+     * @param apiUrl the full URL of ajax.php (полный URL ajax.php)
+     */
+    public static void setApiUrl(String apiUrl) {
+        API_URL = apiUrl;
+    }
+
+    public static SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод задаёт общее хранилище сеансов, через которое {@link #getSessionData(String)} повторно использует сеансы.</code><br>
+     * По умолчанию используется каталог из системного свойства <code>guerrillamail.sessionStore</code>, если оно задано;
+     * <code>null</code> отключает хранилище.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method sets the shared session store through which {@link #getSessionData(String)} reuses sessions.</code><br>
+     * Defaults to the directory from the <code>guerrillamail.sessionStore</code> system property if set;
+     * <code>null</code> disables the store.<br>
+     * </p>
+     *
+     * @param sessionStore the store to use, or null (хранилище или null)
+     */
+    public static void setSessionStore(SessionStore sessionStore) {
+        GuerrillaMailApi.sessionStore = sessionStore;
+    }
+
+    public static MailIndex getMailIndex() {
+        return mailIndex;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод включает индексацию всех полученных писем (списки check_email/get_email_list и fetch_email).</code><br>
+     * <code>null</code> отключает индексацию.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method enables indexing of every received email (check_email/get_email_list listings and fetch_email).</code><br>
+     * <code>null</code> disables indexing.<br>
+     * </p>
+     *
+     * @param mailIndex the index to fill, or null (индекс для заполнения или null)
+     */
+    public static void setMailIndex(MailIndex mailIndex) {
+        GuerrillaMailApi.mailIndex = mailIndex;
+    }
+
+    public static FetchStage.Order getFetchOrder() {
+        return fetchOrder;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод задаёт порядок вывода писем, загружаемых параллельно из одного списка: как в списке, по mail_id или по мере загрузки.</code><br>
+     * По умолчанию используется системное свойство <code>guerrillamail.fetch.order</code> или {@link FetchStage.Order#LISTING}
+     * (сначала новые, как в ответе сервиса).<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method sets the order in which emails fetched in parallel from one listing are printed: as listed, by mail_id or as fetched.</code><br>
+     * Defaults to the <code>guerrillamail.fetch.order</code> system property or {@link FetchStage.Order#LISTING}
+     * (newest first, as the service lists them).<br>
+     * </p>
+     *
+     * @param fetchOrder the order to use (порядок для использования)
+     */
+    public static void setFetchOrder(FetchStage.Order fetchOrder) {
+        GuerrillaMailApi.fetchOrder = fetchOrder;
+    }
+
+    public static Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод заменяет транспорт, через который открываются соединения и выполняются паузы.</code><br>
+     * По умолчанию транспорт выбирается системным свойством <code>guerrillamail.transport</code> (см. {@link RecordReplayTransport}).<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method replaces the transport used to open connections and perform pauses.</code><br>
+     * By default the transport is selected by the <code>guerrillamail.transport</code> system property (see {@link RecordReplayTransport}).<br>
+     * </p>
+     *
+     * @param transport the transport to use (транспорт для использования)
+     */
+    public static void setTransport(Transport transport) {
+        GuerrillaMailApi.transport = transport;
     }
 
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод выполняет вызов API по указанному URL и возвращает ответ в виде объекта JSON.</code><br>
-     * Он устанавливает соединение с сервером, получает ответ и преобразует его в объект JSON.<br>
+     * Он устанавливает соединение с сервером, получает ответ и преобразует его в объект JSON.
+     * Одинаковые одновременные вызовы в рамках одной сессии (PHPSESSID и URL) объединяются в один сетевой запрос
+     * и получают один и тот же объект JSON, поэтому результат нельзя изменять.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method makes an API call to the specified URL and returns the response as a JSON object.</code><br>
-     * It sets up the connection, retrieves the response, and converts it into a JSON object.<br>
+     * It sets up the connection, retrieves the response, and converts it into a JSON object.
+     * Identical concurrent calls within one session (PHPSESSID and URL) are coalesced into a single network request
+     * and receive the same JSON object, so the result must not be modified.<br>
      * </p>
      *
      * @param url the URL to make the API call to (URL для вызова API)
@@ -86,18 +261,75 @@ public class GuerrillaMailApi {
      * @throws Exception if an error occurs during the API call into a {@link JSONObject} (выбрасывается исключение, если произошла ошибка при вызове API)
      */
     private static JSONObject makeApiCall(String url) throws Exception {
-        HttpURLConnection connection = setupConnection(url);
-        String response = readResponse(connection);
-        return new JSONObject(response);
+        return makeApiCall(url, PHPSESSID, inboxAddress);
+    }
+
+    /**
+     * Same as {@link #makeApiCall(String)} with the session state read by the caller, for calls made on other threads
+     * (то же, что {@link #makeApiCall(String)}, но с состоянием сеанса, прочитанным вызывающим, для вызовов из других потоков)
+     */
+    private static JSONObject makeApiCall(String url, String phpSessId, String inbox) throws Exception {
+        return IN_FLIGHT_CALLS.execute(phpSessId + "|" + url, () -> callApi(url, phpSessId, inbox, false));
+    }
+
+    /**
+     * Same as {@link #makeApiCall(String)}, but with <code>debug</code> prints the headers of the connection that answered.
+     * Debug calls are not coalesced, so the printed headers always belong to this call
+     * (то же, что {@link #makeApiCall(String)}, но при <code>debug</code> печатает заголовки ответившего соединения)
+     */
+    private static JSONObject makeApiCall(String url, boolean debug) throws Exception {
+        return debug ? callApi(url, PHPSESSID, inboxAddress, true) : makeApiCall(url);
+    }
+
+    private static JSONObject callApi(String url, String phpSessId, String inbox, boolean debug) throws Exception {
+        HttpURLConnection connection = handleRedirectsAndCookies(setupBasicConnection(url, phpSessId), phpSessId);
+        JSONObject jsonResponse = readJson(connection);
+        if (debug) {
+            printSelectedFieldsFromResponse(jsonResponse.toString(), url, connection);
+        }
+        if (jsonResponse.has("email_addr")) {
+            inboxAddress = jsonResponse.getString("email_addr");
+        }
+        indexResponse(inbox != null ? inbox : jsonResponse.optString("email", null), jsonResponse);
+        return jsonResponse;
+    }
+
+    /**
+     * Keeps the {@link MailIndex} in step with a response. The inbox is always the session address, never the
+     * mail_recipient alias, so a listed and a fetched email are one document
+     * (обновляет {@link MailIndex} по ответу; ящик — всегда адрес сеанса, а не алиас mail_recipient)
+     */
+    private static void indexResponse(String inbox, JSONObject jsonResponse) {
+        MailIndex index = mailIndex;
+        if (index == null || inbox == null) {
+            return;
+        }
+        if (jsonResponse.has("list")) {
+            JSONArray emailList = jsonResponse.getJSONArray("list");
+            for (int i = 0; i < emailList.length(); i++) {
+                index.addListing(inbox, emailList.getJSONObject(i));
+            }
+        } else if (jsonResponse.has("mail_body")) {
+            index.addFetched(inbox, jsonResponse);
+        } else if (jsonResponse.has("deleted_ids")) {
+            JSONArray deletedIds = jsonResponse.getJSONArray("deleted_ids");
+            for (int i = 0; i < deletedIds.length(); i++) {
+                index.remove(inbox, deletedIds.getLong(i));
+            }
+        }
     }
 
     /**
      * <p>
      * <strong>Русский:</strong><br>
      * <code>Этот метод задерживает выполнение программы на заданное количество секунд.</code>
+     * Пауза выполняется через текущий {@link Transport}, поэтому при воспроизведении её можно сократить или пропустить.
+     * Каждая пауза записывается как {@link DelayEvent}.
      * </p>
      * <strong>English:</strong><br>
      * <code>This method pauses the execution of the program for the given number of seconds.</code>
+     * The pause goes through the current {@link Transport}, so a replay can shorten or skip it.
+     * Every pause is recorded as a {@link DelayEvent}.
      * </p>
      *
      * @param seconds the number of seconds to delay the execution
@@ -106,10 +338,15 @@ public class GuerrillaMailApi {
      *                          (выбрасывается исключение, если поток был прерван во время сна)
      */
     private static void delay(int seconds) {
+        DelayEvent event = new DelayEvent();
+        event.begin();
         try {
-            Thread.sleep(seconds * 1000L);
+            transport.sleep(seconds * 1000L);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } finally {
+            event.requested = seconds * 1000L;
+            event.commit();
         }
     }
 
@@ -126,9 +363,10 @@ public class GuerrillaMailApi {
      * </p>
      *
      * @param emailItem  the email details in a {@link JSONObject} <code>(детали письма в {@link JSONObject})</code>
+     * @param fetched    the fetch_email response for the email, or null if it could not be fetched <code>(ответ fetch_email или null, если письмо не загружено)</code>
      * @param stopDomain the domain after which email check will stop <code>(домен, после которого проверка писем прекратится)</code>
      */
-    private static void printEmailDetails(JSONObject emailItem, String stopDomain, boolean debug) {
+    private static void printEmailDetails(JSONObject emailItem, JSONObject fetched, String stopDomain, boolean debug) {
         String mailDate = emailItem.getString("mail_date");
         if (!mailDate.contains("-")) {
             long timestamp = emailItem.getLong("mail_timestamp");
@@ -136,7 +374,7 @@ public class GuerrillaMailApi {
         }
         print(GRAY, "EMAIL ID", emailItem.getInt("mail_id") + "");
         if (emailItem.has("att") && emailItem.getLong("att") > 0) {
-            printAttachmentLink(emailItem, debug);
+            printAttachmentLink(emailItem, fetched, debug);
         }
         print(GRAY, "TIME", mailDate);
         // Check for mail_size existence
@@ -147,7 +385,9 @@ public class GuerrillaMailApi {
         }
         print(GRAY, "FROM", emailItem.getString("mail_from"));
         print(GRAY, "SUBJECT", emailItem.getString("mail_subject"));
-        print(GRAY, "MESSAGE", RESET + "\n" + BLUE + getEmailContent(emailItem.getInt("mail_id")) + RESET);
+        try (MailBody content = getEmailContent(fetched)) {
+            printBody(GRAY, "MESSAGE", content);
+        }
 
         if (emailItem.getString("mail_from").endsWith(stopDomain)) {
             print(RED, "Email from ", stopDomain + " received. Stopping email check.");
@@ -159,12 +399,16 @@ public class GuerrillaMailApi {
      * <strong>Русский:</strong><br>
      * <code>Этот метод выполняет несколько попыток чтения электронной почты с указанного API-URL.</code>
      * Он проверяет наличие новых писем и выводит информацию о каждом письме. Если письмо приходит с указанного домена,
-     * проверка завершится. Также есть возможность включить отладочную информацию для вывода.<br>
+     * проверка завершится. Также есть возможность включить отладочную информацию для вывода.
+     * Письма одного списка загружаются параллельно через {@link FetchStage} и выводятся в порядке {@link #getFetchOrder()}.
+     * Каждая попытка записывается как {@link PollCycleEvent}.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method makes multiple attempts to check emails from the specified API URL.</code>
      * It checks for new emails and prints details of each email. If an email is received from the specified domain,
-     * the check stops. There is also an option to enable debug output for more detailed response data.<br>
+     * the check stops. There is also an option to enable debug output for more detailed response data.
+     * The emails of one listing are fetched in parallel through {@link FetchStage} and printed in {@link #getFetchOrder()} order.
+     * Every attempt is recorded as a {@link PollCycleEvent}.<br>
      * </p>
      *
      * @param apiUrl           the URL of the API to check emails (URL API для проверки электронной почты)
@@ -177,25 +421,29 @@ public class GuerrillaMailApi {
         try {
             for (int attempt = 1; attempt <= numAttempts; attempt++) {
                 print(GRAY, String.valueOf(attempt), YELLOW + "Attempt is starting" + RESET);
-                JSONObject jsonResponse = makeApiCall(apiUrl);
+                PollCycleEvent cycle = new PollCycleEvent();
+                cycle.begin();
+                cycle.attempt = attempt;
+                try {
+                    JSONObject jsonResponse = makeApiCall(apiUrl, debug);
 
-                if (debug) {
-                    printSelectedFieldsFromResponse(jsonResponse.toString(), apiUrl, setupConnection(apiUrl));
-                    print(getCallingMethodName() + PURPLE, ": RAW Response", jsonResponse.toString(2));
-                }
+                    if (debug) {
+                        print(getCallingMethodName() + PURPLE, ": RAW Response", jsonResponse.toString(2));
+                    }
 
-                if (jsonResponse.has("list")) {
-                    JSONArray emailList = jsonResponse.getJSONArray("list");
-                    print(GRAY, attempt + ": " + RESET + "[" + YELLOW + "New emails in box found", emailList.length() + "");
-                    for (int i = 0; i < emailList.length(); i++) {
-                        JSONObject emailItem = emailList.getJSONObject(i);
-                        printEmailDetails(emailItem, stopDomain, debug);
-                        if (emailItem.getString("mail_from").endsWith(stopDomain)) {
+                    if (jsonResponse.has("list")) {
+                        JSONArray emailList = jsonResponse.getJSONArray("list");
+                        cycle.emails = emailList.length();
+                        print(GRAY, attempt + ": " + RESET + "[" + YELLOW + "New emails in box found", emailList.length() + "");
+                        if (!printEmails(emailList, stopDomain, debug)) {
+                            cycle.stopped = true;
                             return; // Exit after receiving email from specified domain
                         }
+                    } else {
+                        print(RED, "No emails found", "Attempt " + attempt + ": No new emails was found.");
                     }
-                } else {
-                    print(RED, "No emails found", "Attempt " + attempt + ": No new emails was found.");
+                } finally {
+                    cycle.commit();
                 }
 
                 if (attempt < numAttempts) {
@@ -209,29 +457,95 @@ public class GuerrillaMailApi {
         }
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод загружает все письма списка параллельно и выводит их детали.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method fetches every email of a listing in parallel and prints their details.</code><br>
+     * </p>
+     *
+     * @param emailList  the check_email listing (список писем check_email)
+     * @param stopDomain the domain after which email check will stop (домен, после которого проверка прекратится)
+     * @param debug      whether to print debug information (если true, выводится отладочная информация)
+     * @return false if an email from the stop domain was printed <code>(false, если выведено письмо с домена остановки)</code>
+     * @throws InterruptedException if the thread is interrupted (если поток прерван)
+     */
+    private static boolean printEmails(JSONArray emailList, String stopDomain, boolean debug) throws InterruptedException {
+        Map<Integer, JSONObject> items = new LinkedHashMap<>(); // Listing order, without duplicates
+        for (int i = 0; i < emailList.length(); i++) {
+            JSONObject emailItem = emailList.getJSONObject(i);
+            items.putIfAbsent(emailItem.getInt("mail_id"), emailItem);
+        }
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<Integer> mailIds = new ArrayList<>(items.keySet());
+        String phpSessId = PHPSESSID; // Read here, the fetches run on other threads
+        String sessionSidToken = sidToken;
+        String inbox = inboxAddress;
+        FetchStage.Fetcher fetcher = mailId -> fetchEmail(mailId, sessionSidToken, phpSessId, inbox);
+        FetchStage.shared().fetchAll(String.valueOf(phpSessId), mailIds, fetchOrder, fetcher, (mailId, fetched, error) -> {
+            if (error != null) {
+                logger.log(Level.SEVERE, "Failed to fetch email " + mailId, error);
+            }
+            JSONObject emailItem = items.get(mailId);
+            printEmailDetails(emailItem, fetched, stopDomain, debug);
+            stopped.set(emailItem.getString("mail_from").endsWith(stopDomain));
+            return !stopped.get();
+        });
+        return !stopped.get();
+    }
+
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод получает данные сеанса для указанного адреса электронной почты с целью получения sid_token.</code>
      * Он извлекает имя пользователя из адреса электронной почты, формирует URL для API и отправляет запрос для получения
-     * данных сеанса, включая sid_token.<br>
+     * данных сеанса, включая sid_token. Если задано {@link SessionStore}, вместо этого используется сохранённый сеанс,
+     * а новый сеанс сохраняется для других процессов.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method retrieves session data for the specified email address in order to obtain the sid_token.</code>
      * It extracts the username from the email address, constructs the API URL, and sends a request to retrieve the session
-     * data, including the sid_token.<br>
+     * data, including the sid_token. If a {@link SessionStore} is set, a stored session is reused instead, and a new one is
+     * stored for other processes.<br>
      * </p>
      *
      * @param emailAddress the email address for which session data is to be retrieved (адрес электронной почты, для которого нужно получить данные сеанса)
      * @return the <code>sid_token (sid_token)</code>
      */
     public static String getSessionData(String emailAddress) {
+        SessionStore store = sessionStore;
+        if (store != null) {
+            try {
+                SessionEvent restored = new SessionEvent();
+                restored.begin();
+                AtomicBoolean created = new AtomicBoolean();
+                SessionSnapshot snapshot = store.getOrCreate(emailAddress, () -> {
+                    created.set(true);
+                    GuerrillaSession session = openSession(emailAddress);
+                    return new SessionSnapshot(emailAddress, session.getSidToken(), session.getPhpSessId(), session.getExpiresAt());
+                });
+                PHPSESSID = snapshot.getPhpSessId();
+                sidToken = snapshot.getSidToken();
+                inboxAddress = emailAddress;
+                if (!created.get()) {
+                    commitSessionEvent(restored, SessionEvent.RESTORE, emailAddress);
+                }
+                print(getCallingMethodName() + PURPLE, ": Session Data Shared for Email", CYAN + emailAddress + RESET);
+                return snapshot.getSidToken();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to use the session store, requesting a new session", e);
+            }
+        }
         String emailUser = emailAddress.split("@")[0];
-        String apiUrl = API_URL + "?f=set_email_user&email_user=" + emailUser + "&lang=en";
+        String apiUrl = ApiRequest.setEmailUser(emailUser).toUrl(API_URL, null);
         try {
+            SessionEvent event = new SessionEvent();
+            event.begin();
             HttpURLConnection connection = setupConnection(apiUrl);
-            String response = readResponse(connection);
-            JSONObject jsonResponse = new JSONObject(response);
-            setSidToken(jsonResponse.getString("sid_token"));
+            JSONObject jsonResponse = readJson(connection);
+            sidToken = jsonResponse.getString("sid_token");
+            inboxAddress = jsonResponse.optString("email_addr", emailAddress);
+            commitSessionEvent(event, SessionEvent.CREATE, emailAddress);
             print(getCallingMethodName() + PURPLE, ": Session Data Received for Email", CYAN + emailAddress + RESET);
             return jsonResponse.getString("sid_token");
         } catch (Exception e) {
@@ -240,6 +554,107 @@ public class GuerrillaMailApi {
         return null;
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод открывает новый независимый сеанс для указанного адреса.</code><br>
+     * В отличие от {@link #getSessionData(String)}, он не использует и не изменяет статические PHPSESSID и sid_token:
+     * куки и токен сохраняются в возвращаемом {@link GuerrillaSession}.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method opens a new independent session for the specified address.</code><br>
+     * Unlike {@link #getSessionData(String)}, it neither uses nor changes the static PHPSESSID and sid_token:
+     * the cookie and token are kept in the returned {@link GuerrillaSession}.<br>
+     * </p>
+     *
+     * @param emailAddress the address (or its local part) to open the session for (адрес или его локальная часть)
+     * @return the opened session <code>(открытый сеанс)</code>
+     * @throws Exception if the session could not be opened (если не удалось открыть сеанс)
+     */
+    static GuerrillaSession openSession(String emailAddress) throws Exception {
+        SessionEvent event = new SessionEvent();
+        event.begin();
+        String emailUser = emailAddress.split("@")[0];
+        String apiUrl = ApiRequest.setEmailUser(emailUser).toUrl(API_URL, null);
+        HttpURLConnection connection = followRedirect(setupBasicConnection(apiUrl, null), null);
+        String phpSessId = extractPhpSessId(connection);
+        JSONObject jsonResponse = readJson(connection);
+        String address = jsonResponse.has("email_addr") ? jsonResponse.getString("email_addr") : emailAddress;
+        GuerrillaSession session = new GuerrillaSession(address, jsonResponse.getString("sid_token"), phpSessId);
+        commitSessionEvent(event, SessionEvent.CREATE, address);
+        return session;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод выполняет вызов API в рамках указанного сеанса и возвращает ответ в виде объекта JSON.</code><br>
+     * К запросу добавляются sid_token и куки сеанса; новые значения из ответа сохраняются в сеансе.
+     * Одинаковые одновременные вызовы объединяются, как в {@link #makeApiCall(String)}.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method makes an API call within the specified session and returns the response as a JSON object.</code><br>
+     * The session sid_token and cookie are added to the request; new values from the response are stored in the session.
+     * Identical concurrent calls are coalesced, as in {@link #makeApiCall(String)}.<br>
+     * </p>
+     *
+     * @param session the session to call the API in (сеанс для вызова API)
+     * @param request the request, e.g. {@link ApiRequest#checkEmail(long)} (запрос)
+     * @return the {@link JSONObject} <code>response from the API call (JSON-ответ от вызова API)</code>
+     * @throws Exception if an error occurs during the API call (если произошла ошибка при вызове API)
+     */
+    static JSONObject callSession(GuerrillaSession session, ApiRequest request) throws Exception {
+        String apiUrl = request.toUrl(API_URL, session.getSidToken());
+        return IN_FLIGHT_CALLS.execute(session.getPhpSessId() + "|" + apiUrl, () -> {
+            HttpURLConnection connection = setupSessionConnection(session, apiUrl);
+            JSONObject jsonResponse = readJson(connection);
+            if (jsonResponse.has("sid_token") && !jsonResponse.getString("sid_token").equals(session.getSidToken())) {
+                session.setSidToken(jsonResponse.getString("sid_token"));
+                commitSessionEvent(new SessionEvent(), SessionEvent.REFRESH, session.getEmailAddress());
+            }
+            indexResponse(session.getEmailAddress(), jsonResponse);
+            return jsonResponse;
+        });
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод вызывает forget_me для адреса сеанса.</code><br>
+     * Сервис забывает адрес, но сеанс остаётся активным. Письма адреса убираются из {@link MailIndex}.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method calls forget_me for the session address.</code><br>
+     * The service forgets the address but keeps the session active. The emails of the address are dropped from the {@link MailIndex}.<br>
+     * </p>
+     *
+     * @param session the session whose address is forgotten (сеанс, адрес которого забывается)
+     * @return <code>true</code> if the service confirmed it (если сервис подтвердил)
+     * @throws Exception if an error occurs during the API call (если произошла ошибка при вызове API)
+     */
+    static boolean forgetMe(GuerrillaSession session) throws Exception {
+        String apiUrl = ApiRequest.forgetMe(session.getEmailAddress()).toUrl(API_URL, session.getSidToken());
+        HttpURLConnection connection = setupSessionConnection(session, apiUrl);
+        boolean forgotten = readResponse(connection).trim().equals("true");
+        MailIndex index = mailIndex;
+        if (forgotten && index != null) {
+            index.removeInbox(session.getEmailAddress());
+        }
+        return forgotten;
+    }
+
+    private static void commitSessionEvent(SessionEvent event, String action, String emailAddress) {
+        event.action = action;
+        event.emailAddress = emailAddress;
+        event.commit();
+    }
+
+    private static HttpURLConnection setupSessionConnection(GuerrillaSession session, String apiUrl) throws Exception {
+        HttpURLConnection connection = followRedirect(setupBasicConnection(apiUrl, session.getPhpSessId()), session.getPhpSessId());
+        String phpSessId = extractPhpSessId(connection);
+        if (phpSessId != null) {
+            session.setPhpSessId(phpSessId);
+        }
+        return connection;
+    }
+
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод возвращает имя метода, который его вызвал</code><br>
@@ -261,27 +676,61 @@ public class GuerrillaMailApi {
     /**
      * <strong>Русский:</strong><br>
      * <code>Метод для получения запроса в формате JSON.</code><br>
-     * Этот метод принимает URL API, заголовки и метод запроса, и возвращает их в виде JSON-объекта.<br>
+     * Этот метод принимает запрос API, заголовки и метод запроса, и возвращает их в виде JSON-объекта.
+     * Параметры берутся из {@link ApiRequest} без разбора URL и без экранирования.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>Method to get the request in JSON format.</code><br>
-     * This method takes the API URL, headers, and request method, and returns them as a JSON object.<br>
+     * This method takes the API request, headers, and request method, and returns them as a JSON object.
+     * The parameters come from the {@link ApiRequest} without parsing the URL and without escaping.<br>
+     * </p>
+     *
+     * @param request       the API request (запрос API)
+     * @param sidToken      the session token sent with the request, or null (токен сеанса, переданный с запросом, или null)
+     * @param headers       the headers of the API request (заголовки запроса API)
+     * @param requestMethod the HTTP method of the API request (HTTP метод запроса API)
+     * @return the JSON representation of the request <code>(JSON представление запроса)</code>
+     */
+    public static String getRequestAsJson(ApiRequest request, String sidToken, Map<String, List<String>> headers, String requestMethod) {
+        JSONObject json = request.toJson(sidToken);
+        json.put("base_url", API_URL);
+        JSONObject headersJson = new JSONObject();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            headersJson.put(entry.getKey(), entry.getValue());
+        }
+        json.put("headers", headersJson);
+        json.put("method", requestMethod);
+        // printAllKeysAndValues(json);
+        return json.toString(2);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Метод для получения запроса в формате JSON по готовому URL.</code><br>
+     * Параметры берутся из строки запроса и декодируются.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Method to get the request in JSON format from a built URL.</code><br>
+     * The parameters are taken from the query string and decoded.<br>
      * </p>
      *
      * @param apiUrl        the URL of the API request (URL запроса API)
      * @param headers       the headers of the API request (заголовки запроса API)
      * @param requestMethod the HTTP method of the API request (HTTP метод запроса API)
      * @return the JSON representation of the request <code>(JSON представление запроса)</code>
+     * @deprecated parses the URL back into parameters; use {@link #getRequestAsJson(ApiRequest, String, Map, String)}
+     * (разбирает URL обратно в параметры; используйте {@link #getRequestAsJson(ApiRequest, String, Map, String)})
      */
+    @Deprecated
     public static String getRequestAsJson(String apiUrl, Map<String, List<String>> headers, String requestMethod) {
         JSONObject json = new JSONObject();
-        String[] urlParts = apiUrl.split("\\?");
+        String[] urlParts = apiUrl.split("\\?", 2);
         json.put("base_url", urlParts[0]);
         if (urlParts.length > 1) {
-            String[] params = urlParts[1].split("&");
-            for (String param : params) {
-                String[] keyValue = param.split("=");
-                json.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+            for (String param : urlParts[1].split("&")) {
+                String[] keyValue = param.split("=", 2);
+                json.accumulate(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8),
+                        keyValue.length > 1 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8) : "");
             }
         }
         JSONObject headersJson = new JSONObject();
@@ -290,10 +739,18 @@ public class GuerrillaMailApi {
         }
         json.put("headers", headersJson);
         json.put("method", requestMethod);
-        // printAllKeysAndValues(json);
         return json.toString(2);
     }
 
+    /**
+     * The RAW Request debug output for a request on the static session, from a connection that is never sent
+     * (отладочный вывод RAW Request для запроса статического сеанса по соединению, которое не отправляется)
+     */
+    private static String describeRequest(ApiRequest request, String sidToken) {
+        HttpURLConnection connection = setupUnsentConnection(request.toUrl(API_URL, sidToken), PHPSESSID);
+        return getRequestAsJson(request, sidToken, connection.getRequestProperties(), connection.getRequestMethod());
+    }
+
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод добавляет детали ответа HTTP в JSON-объект и выводит их в консоль.</code><br>
@@ -338,10 +795,14 @@ public class GuerrillaMailApi {
      * <strong>Русский:</strong><br>
      * <code>Этот метод генерирует случайный адрес электронной почты, используя Guerrilla Mail API, и возвращает его.</code><br>
      * Он создает случайное имя пользователя, формирует полный адрес электронной почты, получает sid_token и отправляет запрос к API для получения адреса электронной почты.<br>
+     * Адрес принадлежит статическому сеансу и не отслеживается {@link InboxLifecycleManager}; для автоматической очистки
+     * используйте {@link InboxLifecycleManager#provision()}.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method generates a random email address using the Guerrilla Mail API and returns it.</code><br>
      * It creates a random username, forms the full email address, retrieves the sid_token, and sends a request to the API to get the email address.<br>
+     * The address belongs to the static session and is not tracked by {@link InboxLifecycleManager}; use
+     * {@link InboxLifecycleManager#provision()} for automatic cleanup.<br>
      * </p>
      *
      * @param debug flag to enable debug messages <code>(флаг для включения сообщений отладки)</code>
@@ -351,13 +812,13 @@ public class GuerrillaMailApi {
         String randomEmailUser = UUID.randomUUID().toString().substring(0, 8);
         String emailAddress = randomEmailUser + "@guerrillamailblock.com";
         sidToken = getSessionData(emailAddress);
-        String apiUrl = API_URL + "?f=get_email_address&lang=en&sid_token=" + sidToken;
+        ApiRequest request = ApiRequest.getEmailAddress();
+        String apiUrl = request.toUrl(API_URL, sidToken);
         try {
-            HttpURLConnection connection = setupBasicConnection(apiUrl);
             if (debug) {
-                print(getCallingMethodName() + PURPLE, ": RAW Request", getRequestAsJson(apiUrl, connection.getRequestProperties(), connection.getRequestMethod()));
+                print(getCallingMethodName() + PURPLE, ": RAW Request", describeRequest(request, sidToken));
             }
-            connection = setupConnection(apiUrl);
+            HttpURLConnection connection = setupConnection(apiUrl);
             String response = readResponse(connection);
             JSONObject jsonResponse = new JSONObject(response);
             if (debug) {
@@ -367,6 +828,7 @@ public class GuerrillaMailApi {
             setSidToken(jsonResponse.getString("sid_token"));
             if (jsonResponse.has("email_addr")) {
                 String emailAddr = jsonResponse.getString("email_addr");
+                inboxAddress = emailAddr;
                 print(getCallingMethodName() + PURPLE, ": Random Email Address", CYAN + emailAddr + RESET);
                 return emailAddr;
             } else {
@@ -382,68 +844,79 @@ public class GuerrillaMailApi {
      * <strong>Русский:</strong><br>
      * <code>Этот метод выполняет запрос к API для получения содержимого электронного письма по его ID.</code>
      * Он извлекает и возвращает текстовое содержимое письма, удаляя HTML-теги. Если письмо не найдено или произошла ошибка,
-     * выводится сообщение об ошибке.<br>
+     * выводится сообщение об ошибке. Большое содержимое хранится на диске (см. {@link MailBody}), поэтому результат нужно закрыть.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method makes an API call to fetch the content of an email by its ID.</code>
      * It extracts and returns the text content of the email, removing HTML tags. If the email is not found or an error occurs,
-     * an error message is printed.<br>
+     * an error message is printed. Large contents are kept on disk (see {@link MailBody}), so the result should be closed.<br>
      * </p>
      *
-     * @param mailId the ID of the email to fetch content for (ID электронного письма, для которого нужно получить содержимое)
+     * @param jsonResponse the fetch_email response, or null if the fetch failed (ответ fetch_email или null, если загрузка не удалась)
      * @return the email content as a text <code>(содержимое электронного письма в текстовом виде)</code>
      */
-    private static String getEmailContent(int mailId) {
-        String apiUrl = API_URL + "?f=fetch_email&email_id=" + mailId + "&sid_token=" + sidToken;
-        try {
-            String response = getResponseFromUrl(apiUrl);
-            JSONObject jsonResponse = new JSONObject(response);
-            if (jsonResponse.has("mail_body")) {
-                String mailBody = jsonResponse.getString("mail_body");
-                // Extract text from HTML
-                return prettyHTML(mailBody);
-            } else {
-                System.err.println("Failed to fetch email content: " + response);
-            }
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Failed to fetch email content", e);
+    private static MailBody getEmailContent(JSONObject jsonResponse) {
+        if (jsonResponse != null && jsonResponse.has("mail_body")) {
+            String mailBody = jsonResponse.getString("mail_body");
+            // Extract text from HTML
+            return prettyHTML(mailBody);
+        } else if (jsonResponse != null) {
+            System.err.println("Failed to fetch email content: " + jsonResponse);
         }
-        return "Failed to fetch email content.";
+        return MailBody.of("Failed to fetch email content.");
+    }
+
+    private static JSONObject fetchEmail(int mailId, String sidToken, String phpSessId, String inbox) throws Exception {
+        return makeApiCall(ApiRequest.fetchEmail(mailId).toUrl(API_URL, sidToken), phpSessId, inbox);
     }
 
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод извлекает текст из HTML, удаляя все теги HTML и обрезая начальные и конечные пробелы.</code><br>
+     * Текст пишется за один проход сразу в {@link MailBody}, который при превышении лимита продолжает запись на диск.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method extracts text from HTML by removing all HTML tags and trimming leading and trailing whitespace.</code><br>
+     * The text is written in a single pass straight into a {@link MailBody}, which continues on disk once over the limit.<br>
      * </p>
      *
      * @param html the HTML content from which to extract text (HTML-контент, из которого нужно извлечь текст)
      * @return the extracted text without HTML tags <code>(извлечённый текст без HTML тегов)</code>
      */
-    private static String prettyHTML(String html) {
-        return html.replaceAll("<.*?>", "").trim(); // Remove all HTML tags and trim leading and trailing whitespace
+    private static MailBody prettyHTML(CharSequence html) {
+        MailBody.Builder text = new MailBody.Builder();
+        StringBuilder pendingWhitespace = new StringBuilder(); // Emitted only if more text follows, like trim()
+        boolean started = false;
+        int length = html.length();
+        for (int i = 0; i < length; i++) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int end = i + 1;
+                while (end < length && html.charAt(end) != '>' && html.charAt(end) != '\n') {
+                    end++;
+                }
+                if (end < length && html.charAt(end) == '>') {
+                    i = end; // Same tags as "<.*?>": up to the first '>' on the same line
+                    continue;
+                }
+            }
+            if (c <= ' ') {
+                if (started) {
+                    pendingWhitespace.append(c);
+                }
+                continue;
+            }
+            if (pendingWhitespace.length() > 0) {
+                text.append(pendingWhitespace);
+                pendingWhitespace.setLength(0);
+            }
+            text.append(c);
+            started = true;
+        }
+        return text.build();
     }
 
 
-    /**
-     * <strong>Русский:</strong><br>
-     * <code>Этот метод выполняет запрос по указанному URL и возвращает ответ в виде строки.</code><br>
-     * </p>
-     * <strong>English:</strong><br>
-     * <code>This method makes a request to the specified URL and returns the response as a string.</code><br>
-     * </p>
-     *
-     * @param apiUrl the URL to send the request to (URL, на который отправляется запрос)
-     * @return the response from the URL as a string <code>(ответ от URL в виде строки)</code>
-     * @throws Exception if an error occurs during the connection or reading the response (если возникает ошибка при подключении или чтении ответа)
-     */
-    private static String getResponseFromUrl(String apiUrl) throws Exception {
-        HttpURLConnection connection = setupConnection(apiUrl);
-        return getString(connection);
-    }
-
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод выводит выбранные поля из ответа API, включая HTTP заголовки и данные из JSON-ответа.</code><br>
@@ -505,11 +978,11 @@ public class GuerrillaMailApi {
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод настраивает базовое соединение с API Guerrilla Mail.</code><br>
-     * Он устанавливает параметры соединения, такие как следование за редиректами, заголовки Accept и User-Agent, а также добавляет куки, если PHPSESSID доступен.<br>
+     * Он устанавливает параметры соединения, такие как следование за редиректами, заголовки Accept, Accept-Encoding и User-Agent, а также добавляет куки, если PHPSESSID доступен.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method sets up a basic connection to the Guerrilla Mail API.</code><br>
-     * It configures connection properties such as following redirects, setting Accept and User-Agent headers, and adding the PHPSESSID cookie if available.<br>
+     * It configures connection properties such as following redirects, setting Accept, Accept-Encoding and User-Agent headers, and adding the PHPSESSID cookie if available.<br>
      * </p>
      *
      * @param apiUrl the URL of the API to connect to (URL API для подключения)
@@ -517,13 +990,29 @@ public class GuerrillaMailApi {
      * @throws RuntimeException if an error occurs while setting up the connection (выбрасывается исключение, если произошла ошибка при настройке соединения)
      */
     private static HttpURLConnection setupBasicConnection(String apiUrl) {
+        return setupBasicConnection(apiUrl, PHPSESSID);
+    }
+
+    private static HttpURLConnection setupBasicConnection(String apiUrl, String phpSessId) {
+        HttpURLConnection connection = setupUnsentConnection(apiUrl, phpSessId);
+        ApiCallEvent.begin(connection, phpSessId);
+        return connection;
+    }
+
+    /**
+     * Configures a connection like {@link #setupBasicConnection(String)} without starting an {@link ApiCallEvent}, for
+     * connections that are only printed and never sent (настраивает соединение без события {@link ApiCallEvent} —
+     * для соединений, которые только печатаются и не отправляются)
+     */
+    private static HttpURLConnection setupUnsentConnection(String apiUrl, String phpSessId) {
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(apiUrl).openConnection();
+            HttpURLConnection connection = transport.open(new URL(apiUrl));
             connection.setInstanceFollowRedirects(true);
             connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
             connection.setRequestProperty("User-Agent", "Mozilla/5.0");
-            if (PHPSESSID != null) {
-                connection.setRequestProperty("Cookie", "PHPSESSID=" + PHPSESSID);
+            if (phpSessId != null) {
+                connection.setRequestProperty("Cookie", "PHPSESSID=" + phpSessId);
             }
             return connection;
         } catch (IOException e) {
@@ -548,23 +1037,48 @@ public class GuerrillaMailApi {
      * @throws Exception if an error occurs while handling redirects or extracting cookies (если произошла ошибка при обработке перенаправлений или извлечении куков)
      */
     private static HttpURLConnection handleRedirectsAndCookies(HttpURLConnection connection) throws Exception {
-        int status = connection.getResponseCode();
+        return handleRedirectsAndCookies(connection, PHPSESSID);
+    }
+
+    private static HttpURLConnection handleRedirectsAndCookies(HttpURLConnection connection, String currentPhpSessId) throws Exception {
+        connection = followRedirect(connection, currentPhpSessId);
+        String phpSessId = extractPhpSessId(connection);
+        if (phpSessId != null) {
+            PHPSESSID = phpSessId;
+        }
+        return connection;
+    }
+
+    private static HttpURLConnection followRedirect(HttpURLConnection connection, String phpSessId) throws IOException {
+        int status;
+        try {
+            status = connection.getResponseCode();
+        } catch (IOException e) {
+            ApiCallEvent.finish(connection);
+            throw e;
+        }
         if (status == HttpURLConnection.HTTP_MOVED_TEMP || status == HttpURLConnection.HTTP_MOVED_PERM) {
             String newUrl = connection.getHeaderField("Location");
-            connection = setupBasicConnection(newUrl);
+            ApiCallEvent.finish(connection); // The redirect leg has no body to read, so its event ends here
+            connection = setupBasicConnection(newUrl, phpSessId);
         }
+        return connection;
+    }
+
+    private static String extractPhpSessId(HttpURLConnection connection) {
+        String phpSessId = null;
         Map<String, List<String>> headers = connection.getHeaderFields();
         for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
             if (entry.getKey() != null && entry.getKey().equalsIgnoreCase("Set-Cookie")) {
                 List<String> cookies = entry.getValue();
                 for (String cookie : cookies) {
                     if (cookie.startsWith("PHPSESSID=")) {
-                        PHPSESSID = cookie.split(";")[0].split("=")[1];
+                        phpSessId = cookie.split(";")[0].split("=")[1];
                     }
                 }
             }
         }
-        return connection;
+        return phpSessId;
     }
 
     /**
@@ -605,16 +1119,106 @@ public class GuerrillaMailApi {
     }
 
     private static String getString(HttpURLConnection connection) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
+        try (Reader reader = openResponseReader(connection)) {
             StringBuilder responseBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                responseBuilder.append(line);
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                responseBuilder.append(buffer, 0, read);
             }
             return responseBuilder.toString();
         }
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод читает ответ от соединения HTTP и сразу разбирает его как JSON.</code><br>
+     * Тело ответа передаётся парсеру потоком, без промежуточной строки.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method reads the response from an HTTP connection and parses it as JSON directly.</code><br>
+     * The response body is streamed into the parser without an intermediate string.<br>
+     * </p>
+     *
+     * @param connection the HTTP connection to read the response from (HTTP соединение для чтения ответа)
+     * @return the parsed response <code>(разобранный ответ)</code>
+     * @throws IOException if an error occurs while reading the response (если произошла ошибка при чтении ответа)
+     */
+    private static JSONObject readJson(HttpURLConnection connection) throws IOException {
+        try (Reader reader = openResponseReader(connection)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод открывает поток символов для тела ответа.</code><br>
+     * Он распаковывает тело согласно заголовку Content-Encoding (gzip или deflate) и декодирует его в кодировке
+     * из заголовка Content-Type, по умолчанию UTF-8. Событие {@link ApiCallEvent} вызова записывается при закрытии потока.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method opens a character stream over the response body.</code><br>
+     * It decompresses the body according to the Content-Encoding header (gzip or deflate) and decodes it using the charset
+     * from the Content-Type header, UTF-8 by default. The {@link ApiCallEvent} of the call is committed when the stream is closed.<br>
+     * </p>
+     *
+     * @param connection the HTTP connection to read the response from (HTTP соединение для чтения ответа)
+     * @return the decoded response body <code>(декодированное тело ответа)</code>
+     * @throws IOException if an error occurs while opening the response (если произошла ошибка при открытии ответа)
+     */
+    private static Reader openResponseReader(HttpURLConnection connection) throws IOException {
+        InputStream body;
+        try {
+            body = ApiCallEvent.track(connection, connection.getInputStream());
+        } catch (IOException e) {
+            ApiCallEvent.finish(connection);
+            throw e;
+        }
+        InputStream raw = body;
+        try {
+            String encoding = connection.getContentEncoding();
+            if (encoding != null) {
+                encoding = encoding.trim().toLowerCase(Locale.ROOT);
+                if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+                    body = new GZIPInputStream(body, 8192);
+                } else if (encoding.equals("deflate")) {
+                    body = inflate(body);
+                }
+            }
+            return new InputStreamReader(body, responseCharset(connection.getContentType()));
+        } catch (IOException | RuntimeException e) {
+            raw.close(); // Commits the event of a body that is not valid gzip
+            throw e;
+        }
+    }
+
+    private static InputStream inflate(InputStream body) throws IOException {
+        // "deflate" is meant to be zlib-wrapped, but some servers send raw deflate data
+        BufferedInputStream buffered = new BufferedInputStream(body, 8192);
+        buffered.mark(2);
+        int cmf = buffered.read();
+        int flg = buffered.read();
+        buffered.reset();
+        boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(buffered, new Inflater(!zlib), 8192);
+    }
+
+    private static Charset responseCharset(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                String[] keyValue = param.trim().split("=", 2);
+                if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(keyValue[1].trim().replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        logger.log(Level.WARNING, "Unsupported response charset: " + keyValue[1]);
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
 
     /**
      * <strong>Русский:</strong><br>
@@ -635,14 +1239,8 @@ public class GuerrillaMailApi {
     public static void deleteEmail(int emailId, String emailToDelete, boolean debug) {
         String sidToken = getSessionData(emailToDelete);
         if (debug) {
-            try {
-                // Print debug information even if no emails are found
-                String fetchEmailUrl = API_URL + "?f=fetch_email&email_id=" + emailId + "&sid_token=" + sidToken;
-                HttpURLConnection fetchConnection = setupBasicConnection(fetchEmailUrl);
-                print(getCallingMethodName() + PURPLE, ": RAW Request", getRequestAsJson(fetchEmailUrl, fetchConnection.getRequestProperties(), fetchConnection.getRequestMethod()));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+            // Print debug information even if no emails are found
+            print(getCallingMethodName() + PURPLE, ": RAW Request", describeRequest(ApiRequest.fetchEmail(emailId), sidToken));
         }
         if (emailId == -1) {
             print(RED, "No email to delete", "No emails found for the address: " + emailToDelete);
@@ -650,25 +1248,25 @@ public class GuerrillaMailApi {
         }
         try {
             // Get email details before deleting
-            String fetchEmailUrl = API_URL + "?f=fetch_email&email_id=" + emailId + "&sid_token=" + sidToken;
+            String fetchEmailUrl = ApiRequest.fetchEmail(emailId).toUrl(API_URL, sidToken);
             HttpURLConnection fetchConnection = setupBasicConnection(fetchEmailUrl);
-            String fetchResponse = readResponse(fetchConnection);
-            JSONObject fetchJsonResponse = new JSONObject(fetchResponse);
+            JSONObject fetchJsonResponse = readJson(fetchConnection);
             if (debug) {
                 printResponseDetails(fetchConnection, fetchJsonResponse);
             }
 
             // Proceed to delete
-            String apiUrl = API_URL + "?f=del_email&email_ids[]=" + emailId + "&sid_token=" + sidToken;
-            HttpURLConnection connection = setupBasicConnection(apiUrl);
+            ApiRequest request = ApiRequest.delEmail(emailId);
+            HttpURLConnection connection = setupBasicConnection(request.toUrl(API_URL, sidToken));
             if (debug) {
-                print(getCallingMethodName() + PURPLE, ": RAW Request", getRequestAsJson(apiUrl, connection.getRequestProperties(), connection.getRequestMethod()));
+                print(getCallingMethodName() + PURPLE, ": RAW Request", getRequestAsJson(request, sidToken, connection.getRequestProperties(), connection.getRequestMethod()));
             }
             String response = readResponse(connection);
             JSONObject jsonResponse = new JSONObject(response);
             if (debug) {
                 printResponseDetails(connection, jsonResponse);
             }
+            indexResponse(emailToDelete, jsonResponse);
             if (jsonResponse.has("deleted_ids")) {
                 print(GREEN, "Deleted Email ID", emailId + "");
             } else {
@@ -683,49 +1281,83 @@ public class GuerrillaMailApi {
      * <strong>Русский:</strong><br>
      * <code>Этот метод удаляет все электронные письма на указанном адресе электронной почты.</code><br>
      * Сначала он получает данные сеанса для указанного адреса, затем извлекает список всех писем,
-     * и удаляет каждое письмо, используя метод <code>deleteEmail</code>. Если писем нет, выводится соответствующее сообщение.<br>
+     * и удаляет каждое письмо, используя метод <code>deleteEmail</code>. Если писем нет, выводится соответствующее сообщение.
+     * Все страницы списка читаются через {@link #listEmails(String)} до удаления, поэтому удаление не сдвигает страницы.<br>
      * </p>
      * <strong>English:</strong><br>
      * <code>This method deletes all emails on the specified email address.</code><br>
      * It first retrieves session data for the given email address, then fetches the list of all emails,
-     * and deletes each email using the <code>deleteEmail</code> method. If there are no emails, it prints a message indicating so.<br>
+     * and deletes each email using the <code>deleteEmail</code> method. If there are no emails, it prints a message indicating so.
+     * All pages of the list are read with {@link #listEmails(String)} before deleting, so deletions do not shift the pages.<br>
      * </p>
      *
      * @param email the email address from which all emails are to be deleted <code>(адрес электронной почты, с которого нужно удалить все письма)</code>
      * @param debug flag to enable debug messages <code>(флаг для включения сообщений отладки)</code>
      */
     public static void deleteAllEmails(String email, boolean debug) {
-        String sidToken = getSessionData(email);
+        // Fetch the list of all email IDs
+        List<Integer> emailIds;
+        try (Stream<EmailSummary> emails = listEmails(email)) {
+            emailIds = emails.map(EmailSummary::getMailId).collect(Collectors.toList());
+        } catch (IllegalStateException | JSONException e) {
+            print(RED, "Failed to fetch email list", String.valueOf(e.getCause() != null ? e.getCause() : e.getMessage()));
+            logger.log(Level.SEVERE, "Failed to delete all emails", e);
+            return;
+        }
+        if (emailIds.isEmpty()) {
+            print(GREEN, "No emails to delete", "The account '" + CYAN + email + RESET + "' has no emails.");
+            return;
+        }
         try {
-            // Fetch the list of all email IDs
-            String fetchEmailListUrl = API_URL + "?f=get_email_list&offset=0&sid_token=" + sidToken;
-            HttpURLConnection fetchConnection = setupConnection(fetchEmailListUrl);
-            String fetchResponse = readResponse(fetchConnection);
-            JSONObject fetchJsonResponse = new JSONObject(fetchResponse);
-
-            if (fetchJsonResponse.has("list")) {
-                JSONArray emailList = fetchJsonResponse.getJSONArray("list");
-                if (emailList.isEmpty()) {
-                    print(GREEN, "No emails to delete", "The account '" + CYAN + email + RESET + "' has no emails.");
-                    return;
-                }
-                for (int i = 0; i < emailList.length(); i++) {
-                    JSONObject emailObj = emailList.getJSONObject(i);
-                    int emailId = emailObj.getInt("mail_id");
-                    // Delete each email
-                    deleteEmail(emailId, email, debug);
-                    print(PURPLE, "Email ID", emailId + PURPLE + " was successfully deleted" + RESET);
-                    System.out.println("********************************************");
-                }
-                print(GREEN, "All emails deleted", "All emails on the account '" + CYAN + email + RESET + "' have been successfully deleted.");
-            } else {
-                print(RED, "Failed to fetch email list", fetchResponse);
+            for (int emailId : emailIds) {
+                // Delete each email
+                deleteEmail(emailId, email, debug);
+                print(PURPLE, "Email ID", emailId + PURPLE + " was successfully deleted" + RESET);
+                System.out.println("********************************************");
             }
+            print(GREEN, "All emails deleted", "All emails on the account '" + CYAN + email + RESET + "' have been successfully deleted.");
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Failed to delete all emails", e);
         }
     }
 
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод возвращает ленивый поток всех писем на указанном адресе, страница за страницей.</code><br>
+     * Следующая страница загружается в фоне, пока обрабатывается текущая (см. {@link EmailListing}). Поток нужно закрыть,
+     * если он прочитан не до конца.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method returns a lazy stream of all emails on the specified address, page by page.</code><br>
+     * The next page loads in the background while the current one is processed (see {@link EmailListing}). The stream
+     * should be closed if it is not read to the end.<br>
+     * </p>
+     *
+     * @param email the email address to list (адрес электронной почты для просмотра)
+     * @return the emails, newest first <code>(письма, начиная с новых)</code>
+     */
+    public static Stream<EmailSummary> listEmails(String email) {
+        String sidToken = getSessionData(email);
+        String phpSessId = PHPSESSID; // Read here, the next pages are fetched on other threads
+        String inbox = inboxAddress;
+        return EmailListing.stream(offset -> makeApiCall(ApiRequest.getEmailList(offset).toUrl(API_URL, sidToken), phpSessId, inbox));
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Этот метод возвращает ленивый поток всех писем сеанса, как {@link #listEmails(String)}, но без статического сеанса.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>This method returns a lazy stream of all emails of the session, like {@link #listEmails(String)}, but without the static session.</code><br>
+     * </p>
+     *
+     * @param session the session whose inbox is listed (сеанс, ящик которого просматривается)
+     * @return the emails, newest first <code>(письма, начиная с новых)</code>
+     */
+    static Stream<EmailSummary> listEmails(GuerrillaSession session) {
+        return EmailListing.stream(offset -> callSession(session, ApiRequest.getEmailList(offset)));
+    }
+
     /**
      * <strong>Русский:</strong><br>
      * <code>Этот метод проверяет почту на указанном адресе с указанной задержкой и количеством попыток.</code><br>
@@ -748,7 +1380,7 @@ public class GuerrillaMailApi {
     public static void readFromRandomEmail(String emailAddress, int startDelay, int numAttempts, int intervalAttempts, String stopDomain, boolean debug) {
         try {
             delay(startDelay); // Initial delay
-            String apiUrl = API_URL + "?f=check_email&seq=0&email=" + emailAddress + "&sid_token=" + sidToken;
+            String apiUrl = ApiRequest.checkEmail(0, emailAddress).toUrl(API_URL, sidToken);
             checkEmails(apiUrl, numAttempts, intervalAttempts, stopDomain, debug);
             print(GREEN, "Email Check Complete", "All attempts to check emails completed.");
         } catch (Exception e) {
@@ -778,22 +1410,29 @@ public class GuerrillaMailApi {
      */
     public static void readFromIndividualEmail(String emailUser, int startDelay, int numAttempts, int intervalAttempts, String stopDomain, boolean debug) {
         try {
-            String setEmailUserUrl = API_URL + "?f=set_email_user&email_user=" + emailUser.split("@")[0] + "&lang=en";
-            JSONObject jsonResponse = makeApiCall(setEmailUserUrl);
+            String sidToken = sessionStore != null ? getSessionData(emailUser) : null; // Reuse a shared session if possible
+            if (sidToken != null) {
+                print(PURPLE, "Registered Email Address", emailUser);
+            } else {
+                String setEmailUserUrl = ApiRequest.setEmailUser(emailUser.split("@")[0]).toUrl(API_URL, null);
+                SessionEvent event = new SessionEvent();
+                event.begin();
+                JSONObject jsonResponse = makeApiCall(setEmailUserUrl, debug);
 
-            //String emailAddress = jsonResponse.getString("email_addr");
-            String sidToken = jsonResponse.getString("sid_token");
-            setSidToken(sidToken);
-            print(PURPLE, "Registered Email Address", emailUser);
+                //String emailAddress = jsonResponse.getString("email_addr");
+                sidToken = jsonResponse.getString("sid_token");
+                GuerrillaMailApi.sidToken = sidToken; // A new session, not a refresh
+                commitSessionEvent(event, SessionEvent.CREATE, emailUser);
+                print(PURPLE, "Registered Email Address", emailUser);
 
-            if (debug) {
-                printSelectedFieldsFromResponse(jsonResponse.toString(), setEmailUserUrl, setupConnection(setEmailUserUrl));
-                print(getCallingMethodName() + PURPLE, ": RAW Response", jsonResponse.toString(2));
+                if (debug) {
+                    print(getCallingMethodName() + PURPLE, ": RAW Response", jsonResponse.toString(2));
+                }
             }
 
             delay(startDelay);
 
-            String checkEmailUrl = API_URL + "?f=check_email&seq=0&sid_token=" + sidToken;
+            String checkEmailUrl = ApiRequest.checkEmail(0).toUrl(API_URL, sidToken);
             checkEmails(checkEmailUrl, numAttempts, intervalAttempts, stopDomain, debug);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Failed to read from individual email", e);
@@ -812,15 +1451,16 @@ public class GuerrillaMailApi {
      * it prints the download links, file name, and file type. Debug messages are shown if the debug parameter is set to true.<br>
      * </p>
      *
-     * @param email the email object containing email details <code>(объект письма с деталями письма)</code>
-     * @param debug flag to enable debug messages <code>(флаг для включения сообщений отладки)</code>
+     * @param email        the email object containing email details <code>(объект письма с деталями письма)</code>
+     * @param jsonResponse the fetch_email response, or null to fetch it now <code>(ответ fetch_email или null, чтобы загрузить его сейчас)</code>
+     * @param debug        flag to enable debug messages <code>(флаг для включения сообщений отладки)</code>
      */
-    private static void printAttachmentLink(JSONObject email, boolean debug) {
+    private static void printAttachmentLink(JSONObject email, JSONObject jsonResponse, boolean debug) {
         int emailId = email.getInt("mail_id");
-        String apiUrl = API_URL + "?f=fetch_email&email_id=" + emailId + "&sid_token=" + getSidToken();
         try {
-            String response = getResponseFromUrl(apiUrl);
-            JSONObject jsonResponse = new JSONObject(response);
+            if (jsonResponse == null) {
+                jsonResponse = fetchEmail(emailId, sidToken, PHPSESSID, inboxAddress);
+            }
             if (debug) {
                 print(getCallingMethodName() + PURPLE, ": Attachment Response for email " + emailId, jsonResponse.toString(2));
             }
@@ -833,7 +1473,7 @@ public class GuerrillaMailApi {
                         String fileType = attInfo.getString("t");
                         String fileName = attInfo.getString("f");
                         String partId = attInfo.getString("p");
-                        String attachmentUrl = "https://www.guerrillamail.com/inbox?get_att&email_id=" + emailId + "&part_id=" + partId + "&sid_token=" + getSidToken();
+                        String attachmentUrl = attachmentUrl(emailId, partId, getSidToken());
                         print(GRAY, "    Attachment", String.valueOf((i + 1)));
                         System.out.println(GRAY + "    " + "    File Link: " + RESET + attachmentUrl + GRAY + "\n    " + "    File Name: " + RESET + fileName + RESET + GRAY + "\n    " + "    File Type: " + RESET + fileType);
                     }
@@ -841,13 +1481,21 @@ public class GuerrillaMailApi {
                     print(GRAY, "Attachments", "No attachments found");
                 }
             } else {
-                print(RED, "Failed to fetch attachment link", response);
+                print(RED, "Failed to fetch attachment link", jsonResponse.toString());
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Failed to print attachment link", e);
         }
     }
 
+    /**
+     * @return the download link of an attachment, with every value escaped (ссылка на вложение с экранированными значениями)
+     */
+    static String attachmentUrl(int emailId, String partId, String sidToken) {
+        String url = ATTACHMENT_URL + emailId + "&part_id=" + ApiRequest.encode(partId);
+        return sidToken == null ? url : url + "&sid_token=" + ApiRequest.encode(sidToken);
+    }
+
     /**
      * <strong>Русский:</strong><br>
      * <code>Метод для выполнения GET-запроса к API Guerrilla Mail с целью получения идентификатора электронного письма.</code><br>
@@ -894,14 +1542,10 @@ public class GuerrillaMailApi {
      */
     private static int getEmailId(String emailAddress, boolean debug) {
         String sidToken = getSessionData(emailAddress);
-        String apiUrl = API_URL + "?f=check_email&sid_token=" + sidToken + "&seq=20";
+        ApiRequest request = ApiRequest.checkEmail(20);
+        String apiUrl = request.toUrl(API_URL, sidToken);
         if (debug) {
-            try {
-                HttpURLConnection connection = setupBasicConnection(apiUrl);
-                print(getCallingMethodName() + PURPLE, ": RAW Request", getRequestAsJson(apiUrl, connection.getRequestProperties(), connection.getRequestMethod()));
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Failed to print raw request", e);
-            }
+            print(getCallingMethodName() + PURPLE, ": RAW Request", describeRequest(request, sidToken));
         }
         String response = performGetRequest(apiUrl);
         if (response != null) {
@@ -937,6 +1581,7 @@ public class GuerrillaMailApi {
      * and checks if any email matches a specified stop domain. Debugging mode can be toggled on or off.
      */
     @Test
+    @ResourceLock(STATIC_SESSION)
     public void createRandomAccount() {
         String randomEmailAddress = getRandomEmailAddress(false);
         readFromRandomEmail(randomEmailAddress, 1, 2, 10, "stop@domain.com", false);
@@ -956,6 +1601,7 @@ public class GuerrillaMailApi {
      * Debugging mode can be enabled or disabled.
      */
     @Test
+    @ResourceLock(STATIC_SESSION)
     public void createNewAccount() {
         String specificEmailAddress = "portishea10@guerrillamailblock.com";
         readFromIndividualEmail(specificEmailAddress, 1, 2, 10, "stop@domain.ua", false);
@@ -973,6 +1619,7 @@ public class GuerrillaMailApi {
      * fetched ID.
      */
     @Test
+    @ResourceLock(STATIC_SESSION)
     public void deleteOneEMail() {
         String emailToDelete = "portishea10@guerrillamailblock.com";
         deleteEmail(getEmailId(emailToDelete, false), emailToDelete, false);
@@ -988,7 +1635,35 @@ public class GuerrillaMailApi {
      * This method calls the function to delete all emails on the account using the provided email address.
      */
     @Test
+    @ResourceLock(STATIC_SESSION)
     public void deleteAllEmailsOnAccount() {
         deleteAllEmails("portishea10@guerrillamailblock.com", false);
     }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Тест проверки входящих писем в отдельном ящике из пула, который передаёт {@link InboxPoolExtension}.</code><br>
+     * Проверяет, что ящик открыт на домене пула, не истёк и отвечает корректным списком писем (возможно, пустым).
+     * Тест не использует статический сеанс, поэтому может выполняться параллельно с другими такими тестами.
+     * <p>
+     * <strong>English:</strong><br>
+     * <code>Test checking the incoming emails of an isolated pooled inbox injected by {@link InboxPoolExtension}.</code><br>
+     * It checks that the inbox is open on the pool domain, not expired and answers with a valid, possibly empty, list.
+     * The test does not use the static session, so it can run in parallel with other such tests.
+     */
+    @Test
+    @ExtendWith(InboxPoolExtension.class)
+    public void checkPooledInbox(GuerrillaSession inbox) throws Exception {
+        assertNotNull(inbox.getEmailAddress(), "Pooled inbox has no address");
+        assertTrue(inbox.getEmailAddress().toLowerCase(Locale.ROOT).endsWith(InboxLifecycleManager.DOMAIN), inbox.getEmailAddress());
+        assertFalse(inbox.isExpired(), "Pooled inbox is already expired");
+        print(PURPLE, "Pooled Email Address", inbox.getEmailAddress());
+        JSONObject jsonResponse = callSession(inbox, ApiRequest.checkEmail(0));
+        JSONArray emailList = jsonResponse.optJSONArray("list");
+        assertNotNull(emailList, "check_email returned no list: " + jsonResponse);
+        for (int i = 0; i < emailList.length(); i++) {
+            assertTrue(emailList.getJSONObject(i).getLong("mail_id") > 0, emailList.getJSONObject(i).toString());
+        }
+        print(GRAY, "Emails in pooled inbox", String.valueOf(emailList.length()));
+    }
 }
@@ -0,0 +1,321 @@
+package mail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Долгоживущий локальный демон, который предоставляет клиент другим процессам по HTTP на 127.0.0.1.</code><br>
+ * Демон держит в одной JVM прогретые соединения, пул готовых ящиков ({@link InboxPool}) и открытые сеансы, поэтому
+ * короткоживущие процессы (на любом языке) не платят за запуск JVM, TLS и <code>set_email_user</code>.
+ * Все ответы — JSON. Ящик определяется параметром <code>email</code>, который вернул <code>/provision</code>.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Long-running local daemon that exposes the client to other processes over HTTP on 127.0.0.1.</code><br>
+ * The daemon keeps warm connections, a pool of ready inboxes ({@link InboxPool}) and open sessions in one JVM, so
+ * short-lived processes (in any language) do not pay for JVM startup, TLS and <code>set_email_user</code>.
+ * All responses are JSON. An inbox is identified by the <code>email</code> parameter returned by <code>/provision</code>.<br>
+ * </p>
+ * <ul>
+ * <li><code>/provision</code> — takes an inbox from the pool: <code>{"email_addr": ..., "expires_at": ...}</code></li>
+ * <li><code>/await?email=&amp;timeout=30s&amp;from=</code> — waits for new emails, optionally only from a sender domain
+ * or address: <code>{"list": [...]}</code>, empty on timeout. Emails skipped by <code>from</code> stay available to a
+ * later <code>/await</code></li>
+ * <li><code>/fetch?email=&amp;id=</code> — the <code>fetch_email</code> response</li>
+ * <li><code>/delete?email=&amp;id=</code> — deletes emails (<code>id</code> may repeat); without <code>id</code> releases the
+ * whole inbox for background cleanup</li>
+ * <li><code>/health</code> — open sessions and warm inboxes</li>
+ * </ul>
+ * <p>
+ * Expired inboxes are evicted on access and by a periodic sweep and handed back to the pool for cleanup.
+ * <p>
+ * Usage: <code>./gradlew daemon -PdaemonArgs="port=8025 pool=16"</code>
+ */
+public class GuerrillaMailDaemon implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(GuerrillaMailDaemon.class.getName());
+    private static final Duration MAX_AWAIT = Duration.ofMinutes(5);
+
+    private final HttpServer server;
+    private final InboxPool pool;
+    private final Duration pollInterval;
+    private final Map<String, GuerrillaSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> delivered = new ConcurrentHashMap<>(); // Returned by /await above the seq cursor
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(InboxLifecycleManager.daemonThreads("mail-daemon-sweeper"));
+
+    /**
+     * @param port         the local port, 0 for any free one (локальный порт, 0 — любой свободный)
+     * @param pool         the pool inboxes are provisioned from, closed with the daemon (пул ящиков, закрывается вместе с демоном)
+     * @param pollInterval the pause between check_email polls in <code>/await</code> (пауза между опросами check_email)
+     * @throws IOException if the port could not be bound (если не удалось занять порт)
+     */
+    public GuerrillaMailDaemon(int port, InboxPool pool, Duration pollInterval) throws IOException {
+        this.pool = pool;
+        this.pollInterval = pollInterval;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(InboxLifecycleManager.daemonThreads("mail-daemon"))); // /await blocks
+        server.createContext("/provision", exchange -> handle(exchange, this::provision));
+        server.createContext("/await", exchange -> handle(exchange, this::await));
+        server.createContext("/fetch", exchange -> handle(exchange, this::fetch));
+        server.createContext("/delete", exchange -> handle(exchange, this::delete));
+        server.createContext("/health", exchange -> handle(exchange, params -> {
+            evictExpired();
+            return new JSONObject().put("sessions", sessions.size()).put("warm", pool.warmInboxes());
+        }));
+        sweeper.scheduleAtFixedRate(this::evictExpired, 30, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Точка входа. Параметры задаются как key=value.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Entry point. Options are given as key=value.</code><br>
+     * </p>
+     * Options: <code>port</code> (8025), <code>pool</code> (<code>guerrillamail.pool.size</code>), <code>poll</code> (2s),
+     * <code>apiUrl</code>. Durations accept ms, s, m and h suffixes.
+     *
+     * @param args the options (параметры)
+     * @throws IOException if the port could not be bound (если не удалось занять порт)
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got: " + arg);
+            }
+            options.put(keyValue[0].replaceFirst("^--", ""), keyValue[1]);
+        }
+        if (options.containsKey("apiUrl")) {
+            GuerrillaMailApi.setApiUrl(options.get("apiUrl"));
+        }
+        InboxPool pool = options.containsKey("pool")
+                ? new InboxPool(new InboxLifecycleManager(), Integer.parseInt(options.get("pool")))
+                : new InboxPool();
+        GuerrillaMailDaemon daemon = new GuerrillaMailDaemon(Integer.parseInt(options.getOrDefault("port", "8025")), pool,
+                Durations.parse(options.getOrDefault("poll", "2s")));
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "mail-daemon-shutdown"));
+        daemon.start();
+        System.out.println("Guerrilla Mail daemon listening on http://127.0.0.1:" + daemon.getPort());
+        try {
+            Thread.currentThread().join(); // The server threads are daemons, keep the JVM alive until it is stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private JSONObject provision(Map<String, List<String>> params) throws Exception {
+        GuerrillaSession session = pool.acquire();
+        sessions.put(key(session.getEmailAddress()), session);
+        return new JSONObject().put("email_addr", session.getEmailAddress()).put("expires_at", session.getExpiresAt());
+    }
+
+    private JSONObject await(Map<String, List<String>> params) throws Exception {
+        GuerrillaSession session = session(params);
+        Duration timeout = Durations.parse(first(params, "timeout", "30s"));
+        long deadline = System.nanoTime() + Math.min(timeout.toNanos(), MAX_AWAIT.toNanos());
+        String from = first(params, "from", "").toLowerCase(Locale.ROOT);
+        JSONArray found = new JSONArray();
+        synchronized (session) { // One poller per inbox, so concurrent awaits do not split the new emails between them
+            while (true) {
+                JSONArray emailList = GuerrillaMailApi.callSession(session, ApiRequest.checkEmail(session.getSeq())).optJSONArray("list");
+                Set<Long> returned = delivered.computeIfAbsent(key(session.getEmailAddress()), k -> new HashSet<>());
+                long newest = session.getSeq();
+                long firstSkipped = Long.MAX_VALUE;
+                for (int i = 0; emailList != null && i < emailList.length(); i++) {
+                    JSONObject emailItem = emailList.getJSONObject(i);
+                    long mailId = emailItem.getLong("mail_id");
+                    newest = Math.max(newest, mailId);
+                    if (returned.contains(mailId)) {
+                        continue;
+                    }
+                    if (matchesSender(emailItem.optString("mail_from", ""), from)) {
+                        found.put(emailItem);
+                        returned.add(mailId);
+                    } else {
+                        firstSkipped = Math.min(firstSkipped, mailId);
+                    }
+                }
+                // seq is a cursor, so it stays below the first skipped email; emails returned above it are remembered
+                long seq = Math.min(newest, firstSkipped - 1);
+                session.setSeq(seq);
+                returned.removeIf(mailId -> mailId <= seq);
+                if (!found.isEmpty() || System.nanoTime() + pollInterval.toNanos() >= deadline) {
+                    return new JSONObject().put("list", found);
+                }
+                GuerrillaMailApi.getTransport().sleep(pollInterval.toMillis());
+            }
+        }
+    }
+
+    private JSONObject fetch(Map<String, List<String>> params) throws Exception {
+        GuerrillaSession session = session(params);
+        int mailId = Integer.parseInt(required(params, "id"));
+        return GuerrillaMailApi.callSession(session, ApiRequest.fetchEmail(mailId));
+    }
+
+    private JSONObject delete(Map<String, List<String>> params) throws Exception {
+        GuerrillaSession session = session(params);
+        List<String> ids = params.getOrDefault("id", List.of());
+        if (ids.isEmpty()) {
+            evict(key(session.getEmailAddress()), session);
+            return new JSONObject().put("released", true);
+        }
+        List<Long> mailIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            mailIds.add(Long.parseLong(id));
+        }
+        return GuerrillaMailApi.callSession(session, ApiRequest.delEmail(mailIds));
+    }
+
+    /**
+     * @param mailFrom the sender, e.g. <code>Shop &lt;no-reply@shop.com&gt;</code> (отправитель)
+     * @param from     a domain, an address or empty for any sender (домен, адрес или пусто для любого отправителя)
+     */
+    static boolean matchesSender(String mailFrom, String from) {
+        if (from.isEmpty()) {
+            return true;
+        }
+        String sender = mailFrom.toLowerCase(Locale.ROOT).trim();
+        if (sender.endsWith(">")) {
+            sender = sender.substring(sender.lastIndexOf('<') + 1, sender.length() - 1);
+        }
+        return from.indexOf('@') >= 0 ? sender.equals(from) : sender.endsWith('@' + from);
+    }
+
+    private GuerrillaSession session(Map<String, List<String>> params) {
+        String key = key(required(params, "email"));
+        GuerrillaSession session = sessions.get(key);
+        if (session != null && session.isExpired()) {
+            evict(key, session);
+            session = null;
+        }
+        if (session == null) {
+            throw new NotFoundException("Unknown or expired inbox: " + params.get("email").get(0));
+        }
+        return session;
+    }
+
+    private void evictExpired() {
+        sessions.forEach((key, session) -> {
+            if (session.isExpired()) {
+                evict(key, session);
+            }
+        });
+    }
+
+    private void evict(String key, GuerrillaSession session) {
+        if (sessions.remove(key, session)) {
+            delivered.remove(key);
+            pool.release(session); // Not awaited, the inbox is cleaned up in the background
+        }
+    }
+
+    private static String key(String emailAddress) {
+        return emailAddress.toLowerCase(Locale.ROOT);
+    }
+
+    private static String required(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isBlank()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return values.get(0);
+    }
+
+    private static String first(Map<String, List<String>> params, String name, String defaultValue) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private interface Handler {
+        JSONObject handle(Map<String, List<String>> params) throws Exception;
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        JSONObject response;
+        try {
+            response = handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (NotFoundException e) {
+            status = 404;
+            response = new JSONObject().put("error", e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            response = new JSONObject().put("error", e.getMessage());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Daemon request failed: " + exchange.getRequestURI(), e);
+            status = 502;
+            response = new JSONObject().put("error", String.valueOf(e));
+        }
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, List<String>> parseQuery(String query) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                String[] keyValue = param.split("=", 2);
+                params.computeIfAbsent(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8), k -> new ArrayList<>())
+                        .add(keyValue.length == 2 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Stops the server and cleans up every inbox (останавливает сервер и очищает все ящики)
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        sweeper.shutdownNow();
+        sessions.clear(); // Still tracked by the pool, so they are cleaned up when it closes
+        delivered.clear();
+        pool.close();
+    }
+
+    private static final class NotFoundException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NotFoundException(String message) {
+            super(message);
+        }
+    }
+}
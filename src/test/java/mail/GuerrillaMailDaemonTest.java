@@ -0,0 +1,191 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link GuerrillaMailDaemon} на свободном порту с заглушкой сервиса: все ручки, коды 400/404 и вытеснение.</code><br>
+ * Тесты подменяют общий транспорт {@link GuerrillaMailApi}, поэтому выполняются изолированно.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link GuerrillaMailDaemon} on a free port with a service stub: every endpoint, 400/404 and eviction.</code><br>
+ * The tests replace the shared {@link GuerrillaMailApi} transport, so they run in isolation.<br>
+ * </p>
+ */
+@Isolated
+public class GuerrillaMailDaemonTest {
+    private StubMailService service;
+    private Transport previousTransport;
+    private GuerrillaMailDaemon daemon;
+
+    @BeforeEach
+    public void useStub() {
+        previousTransport = GuerrillaMailApi.getTransport();
+        service = new StubMailService();
+        GuerrillaMailApi.setTransport(service);
+    }
+
+    @AfterEach
+    public void stopDaemon() {
+        if (daemon != null) {
+            daemon.close();
+        }
+        GuerrillaMailApi.setTransport(previousTransport);
+    }
+
+    @Test
+    public void provisionsInboxesAndReportsHealth() throws Exception {
+        start(Duration.ofHours(1));
+        Response provisioned = get("/provision");
+        assertEquals(200, provisioned.status);
+        String address = provisioned.body.getString("email_addr");
+        assertTrue(address.endsWith(InboxLifecycleManager.DOMAIN), address);
+        assertTrue(provisioned.body.getLong("expires_at") > System.currentTimeMillis());
+        assertEquals(1, get("/health").body.getInt("sessions"));
+        get("/provision");
+        assertEquals(2, get("/health").body.getInt("sessions"));
+    }
+
+    @Test
+    public void awaitAdvancesCursorPastDeliveredEmails() throws Exception {
+        start(Duration.ofHours(1));
+        String address = get("/provision").body.getString("email_addr");
+        int shop = service.deliver(address, "Shop <no-reply@shop.com>", "Order", "Your order");
+        int bank = service.deliver(address, "alerts@bank.com", "Code", "Your code is 1234");
+
+        // The shop email is skipped by the filter, so the cursor stays below it and the bank email is remembered
+        List<Long> banks = ids(get("/await?email=" + encode(address) + "&timeout=0s&from=bank.com").body);
+        assertEquals(List.of((long) bank), banks);
+        List<Long> rest = ids(get("/await?email=" + encode(address) + "&timeout=0s").body);
+        assertEquals(List.of((long) shop), rest);
+        assertEquals(List.of(), ids(get("/await?email=" + encode(address) + "&timeout=0s").body)); // Empty on timeout
+
+        List<StubMailService.Call> checks = service.calls("check_email");
+        assertEquals(List.of("0", String.valueOf(shop - 1), String.valueOf(bank)),
+                List.of(checks.get(0).param("seq"), checks.get(1).param("seq"), checks.get(2).param("seq")));
+    }
+
+    @Test
+    public void fetchesAndDeletesEmails() throws Exception {
+        start(Duration.ofHours(1));
+        String address = get("/provision").body.getString("email_addr");
+        int first = service.deliver(address, "a@example.com", "First", "First body");
+        int second = service.deliver(address, "b@example.com", "Second", "Second body");
+
+        Response fetched = get("/fetch?email=" + encode(address) + "&id=" + first);
+        assertEquals(200, fetched.status);
+        assertEquals("First body", fetched.body.getString("mail_body"));
+
+        Response deleted = get("/delete?email=" + encode(address) + "&id=" + first + "&id=" + second);
+        assertEquals(200, deleted.status);
+        assertEquals(2, deleted.body.getJSONArray("deleted_ids").length());
+        assertEquals(0, service.inboxSize(address));
+    }
+
+    @Test
+    public void deleteWithoutIdReleasesInbox() throws Exception {
+        start(Duration.ofHours(1));
+        String address = get("/provision").body.getString("email_addr");
+        service.deliver(address, "a@example.com", "Left over", "Body");
+
+        assertTrue(get("/delete?email=" + encode(address)).body.getBoolean("released"));
+        assertEquals(0, get("/health").body.getInt("sessions"));
+        assertEquals(404, get("/fetch?email=" + encode(address) + "&id=1").status);
+        awaitForgotten(address);
+        assertEquals(0, service.inboxSize(address));
+    }
+
+    @Test
+    public void mapsBadRequestsAndUnknownInboxes() throws Exception {
+        start(Duration.ofHours(1));
+        String address = get("/provision").body.getString("email_addr");
+
+        assertEquals(400, get("/await").status); // No email
+        assertEquals(400, get("/fetch?email=" + encode(address)).status); // No id
+        assertEquals(400, get("/fetch?email=" + encode(address) + "&id=abc").status);
+        assertEquals(400, get("/await?email=" + encode(address) + "&timeout=").status);
+        assertEquals(400, get("/await?email=" + encode(address) + "&timeout=5y").status);
+        assertEquals(404, get("/await?email=" + encode("nobody" + InboxLifecycleManager.DOMAIN) + "&timeout=0s").status);
+        Response unknown = get("/delete?email=" + encode("nobody" + InboxLifecycleManager.DOMAIN));
+        assertEquals(404, unknown.status);
+        assertTrue(unknown.body.getString("error").contains("nobody"), unknown.body.toString());
+    }
+
+    @Test
+    public void evictsExpiredInboxes() throws Exception {
+        start(Duration.ofMillis(200));
+        String address = get("/provision").body.getString("email_addr");
+        Thread.sleep(250);
+        assertEquals(0, get("/health").body.getInt("sessions"));
+        assertEquals(404, get("/await?email=" + encode(address) + "&timeout=0s").status);
+        awaitForgotten(address);
+    }
+
+    private void start(Duration ttl) throws IOException {
+        // No warm inboxes, so every /provision opens its own session with the given TTL
+        InboxPool pool = new InboxPool(new InboxLifecycleManager(ttl, 2, 20), 0);
+        daemon = new GuerrillaMailDaemon(0, pool, Duration.ofMillis(10));
+        daemon.start();
+    }
+
+    private Response get(String pathAndQuery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + daemon.getPort() + pathAndQuery).openConnection();
+        try {
+            int status = connection.getResponseCode();
+            try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                return new Response(status, new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void awaitForgotten(String address) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.calls("forget_me").stream().noneMatch(call -> address.equals(call.param("email_addr")))) {
+            assertTrue(System.currentTimeMillis() < deadline, "no forget_me for " + address);
+            Thread.sleep(20);
+        }
+    }
+
+    private static List<Long> ids(JSONObject response) {
+        JSONArray list = response.getJSONArray("list");
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < list.length(); i++) {
+            ids.add(list.getJSONObject(i).getLong("mail_id"));
+        }
+        return ids;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static final class Response {
+        final int status;
+        final JSONObject body;
+
+        Response(int status, JSONObject body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package mail;
+
+import java.time.Duration;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Состояние одного сеанса Guerrilla Mail: адрес, sid_token, куки PHPSESSID и курсор seq.</code><br>
+ * В отличие от статического состояния {@link GuerrillaMailApi}, каждый сеанс независим, поэтому несколько ящиков
+ * можно обслуживать одновременно. Закрытие сеанса уведомляет владельца (например, {@link InboxLifecycleManager}),
+ * который выполняет очистку ящика.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>State of a single Guerrilla Mail session: address, sid_token, PHPSESSID cookie and seq cursor.</code><br>
+ * Unlike the static state of {@link GuerrillaMailApi}, every session is independent, so several inboxes
+ * can be served at the same time. Closing a session notifies its owner (for example {@link InboxLifecycleManager}),
+ * which cleans the inbox up.<br>
+ * </p>
+ */
+public class GuerrillaSession implements AutoCloseable {
+    /**
+     * Guerrilla Mail keeps an address for 60 minutes (Guerrilla Mail хранит адрес 60 минут)
+     */
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(60);
+
+    private final String emailAddress;
+    private final long createdAt;
+    private volatile String sidToken;
+    private volatile String phpSessId;
+    private volatile long seq;
+    private volatile long expiresAt;
+    private volatile boolean closed;
+    private volatile Runnable onClose;
+
+    GuerrillaSession(String emailAddress, String sidToken, String phpSessId) {
+        this.emailAddress = emailAddress;
+        this.sidToken = sidToken;
+        this.phpSessId = phpSessId;
+        this.createdAt = System.currentTimeMillis();
+        this.expiresAt = createdAt + DEFAULT_TTL.toMillis();
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    /**
+     * @return the local part of the address (локальная часть адреса)
+     */
+    public String getEmailUser() {
+        return emailAddress.split("@")[0];
+    }
+
+    public String getSidToken() {
+        return sidToken;
+    }
+
+    void setSidToken(String sidToken) {
+        this.sidToken = sidToken;
+    }
+
+    public String getPhpSessId() {
+        return phpSessId;
+    }
+
+    void setPhpSessId(String phpSessId) {
+        this.phpSessId = phpSessId;
+    }
+
+    /**
+     * @return the highest mail_id seen so far, used as the check_email seq cursor (наибольший полученный mail_id, курсор seq для check_email)
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Закрывает сеанс и уведомляет владельца. Повторные вызовы ничего не делают.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Closes the session and notifies its owner. Repeated calls do nothing.</code><br>
+     * </p>
+     */
+    @Override
+    public void close() {
+        Runnable listener;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            listener = onClose;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return emailAddress;
+    }
+}
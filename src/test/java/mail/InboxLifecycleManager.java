@@ -0,0 +1,277 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Менеджер жизненного цикла ящиков, созданных через него.</code><br>
+ * Он отслеживает каждый созданный сеанс и в фоне очищает ящик, когда сеанс закрыт или истёк его срок жизни (TTL):
+ * удаляет письма пакетами через <code>del_email</code> и вызывает <code>forget_me</code>. Очистка выполняется
+ * параллельно с ограниченным числом потоков. {@link #close()} очищает все оставшиеся ящики и дожидается завершения.<br>
+ * Управляются только сеансы из {@link #provision()}, {@link #open(String)} и {@link #track(GuerrillaSession)}. Адреса
+ * статического сеанса {@link GuerrillaMailApi} (например, {@link GuerrillaMailApi#getRandomEmailAddress(boolean)})
+ * менеджер не видит, их нужно очищать самостоятельно.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Lifecycle manager for the inboxes created through it.</code><br>
+ * It tracks every session it created and cleans the inbox up in the background when the session is closed or its TTL
+ * expires: emails are deleted in batches with <code>del_email</code>, then <code>forget_me</code> is called. Cleanup runs
+ * in parallel on a bounded number of threads. {@link #close()} cleans up all remaining inboxes and waits for completion.<br>
+ * Only sessions from {@link #provision()}, {@link #open(String)} and {@link #track(GuerrillaSession)} are managed. Addresses
+ * of the static {@link GuerrillaMailApi} session (e.g. {@link GuerrillaMailApi#getRandomEmailAddress(boolean)}) are not
+ * visible to the manager and must be cleaned up by the caller.<br>
+ * </p>
+ */
+public class InboxLifecycleManager implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(InboxLifecycleManager.class.getName());
+    static final String DOMAIN = "@guerrillamailblock.com";
+    static final int MAX_DELETE_ROUNDS = 50; // Guards against a listing that never shrinks
+
+    private final Duration ttl;
+    private final int deleteBatchSize;
+    private final Set<GuerrillaSession> sessions = ConcurrentHashMap.newKeySet();
+    private final Set<CompletableFuture<Void>> pendingCleanups = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService sweeper;
+    private final ExecutorService cleanupPool;
+    private final Object lock = new Object(); // Guards shutdown against track and release
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a manager with the service TTL, 4 cleanup threads and batches of 20 ids (TTL сервиса, 4 потока очистки, пакеты по 20 ID)
+     */
+    public InboxLifecycleManager() {
+        this(GuerrillaSession.DEFAULT_TTL, 4, 20);
+    }
+
+    /**
+     * @param ttl             how long a session lives before it is cleaned up (время жизни сеанса до очистки)
+     * @param concurrency     the maximum number of inboxes cleaned at the same time (максимум одновременно очищаемых ящиков)
+     * @param deleteBatchSize the maximum number of ids per <code>del_email</code> call (максимум ID в одном вызове del_email)
+     */
+    public InboxLifecycleManager(Duration ttl, int concurrency, int deleteBatchSize) {
+        if (concurrency < 1 || deleteBatchSize < 1) {
+            throw new IllegalArgumentException("concurrency and deleteBatchSize must be positive");
+        }
+        this.ttl = ttl;
+        this.deleteBatchSize = deleteBatchSize;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreads("inbox-sweeper"));
+        this.cleanupPool = Executors.newFixedThreadPool(concurrency, daemonThreads("inbox-cleanup"));
+        long sweepMillis = Math.max(1000, Math.min(ttl.toMillis() / 4, 30_000));
+        sweeper.scheduleAtFixedRate(this::sweepExpired, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Создаёт случайный адрес и начинает отслеживать его сеанс.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Creates a random address and starts tracking its session.</code><br>
+     * </p>
+     *
+     * @return the tracked session <code>(отслеживаемый сеанс)</code>
+     * @throws Exception if the session could not be opened (если не удалось открыть сеанс)
+     */
+    public GuerrillaSession provision() throws Exception {
+        return open(UUID.randomUUID().toString().substring(0, 8) + DOMAIN);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Открывает сеанс для указанного адреса и начинает отслеживать его.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Opens a session for the specified address and starts tracking it.</code><br>
+     * </p>
+     *
+     * @param emailAddress the address to open (адрес для открытия)
+     * @return the tracked session <code>(отслеживаемый сеанс)</code>
+     * @throws Exception if the session could not be opened (если не удалось открыть сеанс)
+     */
+    public GuerrillaSession open(String emailAddress) throws Exception {
+        if (shutdown) {
+            throw new IllegalStateException("Lifecycle manager is closed");
+        }
+        return track(GuerrillaMailApi.openSession(emailAddress)); // Cleans the inbox up if close() ran meanwhile
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Начинает отслеживать уже открытый сеанс.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Starts tracking an already opened session.</code><br>
+     * </p>
+     *
+     * @param session the session to track (сеанс для отслеживания)
+     * @return the same session <code>(тот же сеанс)</code>
+     * @throws IllegalStateException if the manager is closed; the inbox is then cleaned up before throwing
+     *                               (если менеджер закрыт; ящик очищается до выброса исключения)
+     */
+    public GuerrillaSession track(GuerrillaSession session) {
+        synchronized (lock) {
+            if (!shutdown) {
+                session.setExpiresAt(Math.min(session.getExpiresAt(), System.currentTimeMillis() + ttl.toMillis()));
+                session.setOnClose(() -> release(session));
+                sessions.add(session);
+                return session;
+            }
+        }
+        cleanUp(session); // close() already took its snapshot, nobody else would clean this inbox up
+        throw new IllegalStateException("Lifecycle manager is closed");
+    }
+
+    /**
+     * @return the number of sessions that are tracked and not yet released (число отслеживаемых и ещё не освобождённых сеансов)
+     */
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of cleanups that are scheduled or running (число запланированных или выполняемых очисток)
+     */
+    public int pendingCleanups() {
+        return pendingCleanups.size();
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Прекращает отслеживать сеанс и планирует очистку его ящика в фоне.</code><br>
+     * Повторный вызов для того же сеанса возвращает уже завершённую задачу.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Stops tracking the session and schedules the background cleanup of its inbox.</code><br>
+     * Calling it again for the same session returns an already completed future.<br>
+     * </p>
+     *
+     * @param session the session to release (сеанс для освобождения)
+     * @return the cleanup completion <code>(завершение очистки)</code>
+     */
+    public CompletableFuture<Void> release(GuerrillaSession session) {
+        CompletableFuture<Void> cleanup;
+        synchronized (lock) {
+            // Once close() has released everything the set stays empty, so nothing is submitted to the stopped pool
+            if (!sessions.remove(session)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            cleanup = CompletableFuture.runAsync(() -> cleanUp(session), cleanupPool);
+            pendingCleanups.add(cleanup);
+        }
+        cleanup.whenComplete((ignored, error) -> pendingCleanups.remove(cleanup));
+        return cleanup;
+    }
+
+    void sweepExpired() {
+        for (GuerrillaSession session : sessions) {
+            if (session.isExpired()) {
+                release(session);
+            }
+        }
+    }
+
+    private void cleanUp(GuerrillaSession session) {
+        try {
+            deleteAllEmails(session);
+            GuerrillaMailApi.forgetMe(session);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to clean up inbox " + session.getEmailAddress(), e);
+        }
+    }
+
+    private void deleteAllEmails(GuerrillaSession session) throws Exception {
+        for (int round = 0; round < MAX_DELETE_ROUNDS; round++) {
+            JSONObject listing = GuerrillaMailApi.callSession(session, ApiRequest.getEmailList(0));
+            JSONArray emailList = listing.optJSONArray("list");
+            if (emailList == null || emailList.isEmpty()) {
+                return;
+            }
+            List<Integer> ids = new ArrayList<>(emailList.length());
+            for (int i = 0; i < emailList.length(); i++) {
+                ids.add(emailList.getJSONObject(i).getInt("mail_id"));
+            }
+            int deleted = 0;
+            for (int from = 0; from < ids.size(); from += deleteBatchSize) {
+                ApiRequest delete = ApiRequest.delEmail(ids.subList(from, Math.min(from + deleteBatchSize, ids.size())));
+                JSONArray deletedIds = GuerrillaMailApi.callSession(session, delete).optJSONArray("deleted_ids");
+                deleted += deletedIds == null ? 0 : deletedIds.length();
+            }
+            if (deleted == 0) {
+                return; // Nothing could be deleted, the next listing would be the same
+            }
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Регистрирует хук завершения JVM, который вызывает {@link #close()}.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Registers a JVM shutdown hook that calls {@link #close()}.</code><br>
+     * </p>
+     *
+     * @return this manager <code>(этот менеджер)</code>
+     */
+    public InboxLifecycleManager registerShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "inbox-lifecycle-shutdown"));
+        return this;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Освобождает все отслеживаемые сеансы и ждёт завершения очистки (не более 60 секунд).</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Releases all tracked sessions and waits for the cleanup to finish (60 seconds at most).</code><br>
+     * </p>
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (shutdown) {
+                return; // The shutdown hook and an explicit close() may both get here
+            }
+            shutdown = true;
+            for (GuerrillaSession session : new ArrayList<>(sessions)) {
+                release(session);
+            }
+        }
+        sweeper.shutdownNow();
+        try {
+            CompletableFuture.allOf(pendingCleanups.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.log(Level.WARNING, pendingCleanups.size() + " inbox cleanups did not finish in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Inbox cleanup failed", e);
+        }
+        cleanupPool.shutdown();
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
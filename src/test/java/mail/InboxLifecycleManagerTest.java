@@ -0,0 +1,170 @@
+package mail;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link InboxLifecycleManager} на заглушке сервиса: пакеты del_email, forget_me, TTL и закрытие.</code><br>
+ * Тесты подменяют общий транспорт {@link GuerrillaMailApi}, поэтому выполняются изолированно.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link InboxLifecycleManager} against a service stub: del_email batches, forget_me, TTL and close.</code><br>
+ * The tests replace the shared {@link GuerrillaMailApi} transport, so they run in isolation.<br>
+ * </p>
+ */
+@Isolated
+public class InboxLifecycleManagerTest {
+    private StubMailService service;
+    private Transport previousTransport;
+
+    @BeforeEach
+    public void useStub() {
+        previousTransport = GuerrillaMailApi.getTransport();
+        service = new StubMailService();
+        GuerrillaMailApi.setTransport(service);
+    }
+
+    @AfterEach
+    public void restoreTransport() {
+        GuerrillaMailApi.setTransport(previousTransport);
+    }
+
+    @Test
+    public void deletesInBatchesThenForgets() throws Exception {
+        try (InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 2, 7)) {
+            GuerrillaSession session = manager.open("batches" + InboxLifecycleManager.DOMAIN);
+            deliver(session.getEmailAddress(), 30);
+            assertEquals(1, manager.activeSessions());
+            manager.release(session).get(10, TimeUnit.SECONDS);
+            assertEquals(0, manager.activeSessions());
+            // Two listings of at most 20 emails, each deleted in batches of 7
+            assertEquals(List.of(7, 7, 6, 7, 3), batchSizes());
+            assertEquals(3, service.calls("get_email_list").size()); // The last one finds the inbox empty
+            assertEquals(0, service.inboxSize(session.getEmailAddress()));
+            assertForgotten(session.getEmailAddress());
+            assertEquals("forget_me", last(service.functions()));
+        }
+    }
+
+    @Test
+    public void cleansUpWhenSessionIsClosed() throws Exception {
+        InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 2, 20);
+        GuerrillaSession session = manager.provision();
+        deliver(session.getEmailAddress(), 3);
+        session.close();
+        session.close(); // Closing twice schedules one cleanup
+        manager.close(); // Waits for the cleanup started by the session
+        assertEquals(List.of(3), batchSizes());
+        assertForgotten(session.getEmailAddress());
+        assertEquals(0, manager.pendingCleanups());
+    }
+
+    @Test
+    public void stopsAfterMaxDeleteRounds() throws Exception {
+        service.setKeepDeleted(true); // Every del_email succeeds but the listing never shrinks
+        try (InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 1, 20)) {
+            GuerrillaSession session = manager.provision();
+            deliver(session.getEmailAddress(), 1);
+            manager.release(session).get(10, TimeUnit.SECONDS);
+            assertEquals(InboxLifecycleManager.MAX_DELETE_ROUNDS, service.calls("del_email").size());
+            assertForgotten(session.getEmailAddress());
+        }
+    }
+
+    @Test
+    public void releasesOnlyExpiredSessions() throws Exception {
+        try (InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 2, 20)) {
+            GuerrillaSession expired = manager.provision();
+            GuerrillaSession alive = manager.provision();
+            expired.setExpiresAt(System.currentTimeMillis() - 1);
+            manager.sweepExpired();
+            assertEquals(1, manager.activeSessions());
+            awaitForgotten(expired.getEmailAddress());
+            assertTrue(service.calls("forget_me").stream().noneMatch(call -> alive.getEmailAddress().equals(call.param("email_addr"))));
+        }
+    }
+
+    @Test
+    public void sweeperReleasesSessionsAfterTtl() throws Exception {
+        try (InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofMillis(1), 2, 20)) {
+            GuerrillaSession session = manager.provision();
+            assertTrue(session.getExpiresAt() <= System.currentTimeMillis() + 1, "TTL must cap the session expiry");
+            awaitForgotten(session.getEmailAddress()); // The sweeper runs every second at the shortest
+            assertEquals(0, manager.activeSessions());
+        }
+    }
+
+    @Test
+    public void closeFlushesAllSessionsWithBoundedConcurrency() throws Exception {
+        InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 2, 20);
+        List<GuerrillaSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            GuerrillaSession session = manager.provision();
+            deliver(session.getEmailAddress(), 2);
+            sessions.add(session);
+        }
+        service.setLatencyMillis(20); // Keeps cleanups overlapping
+        manager.close();
+        for (GuerrillaSession session : sessions) {
+            assertForgotten(session.getEmailAddress());
+            assertEquals(0, service.inboxSize(session.getEmailAddress()));
+        }
+        assertTrue(service.maxConcurrentCalls() <= 2, "cleanup concurrency exceeded: " + service.maxConcurrentCalls());
+        assertEquals(0, manager.activeSessions());
+        assertEquals(0, manager.pendingCleanups());
+        manager.close(); // A second close does nothing
+        assertThrows(IllegalStateException.class, manager::provision);
+    }
+
+    @Test
+    public void cleansUpSessionsTrackedAfterClose() throws Exception {
+        InboxLifecycleManager manager = new InboxLifecycleManager(Duration.ofHours(1), 2, 20);
+        manager.close();
+        GuerrillaSession late = GuerrillaMailApi.openSession("late" + InboxLifecycleManager.DOMAIN);
+        assertThrows(IllegalStateException.class, () -> manager.track(late));
+        assertForgotten(late.getEmailAddress());
+    }
+
+    private void deliver(String address, int count) {
+        for (int i = 0; i < count; i++) {
+            service.deliver(address, "sender@example.com", "Mail " + i, "Body " + i);
+        }
+    }
+
+    private List<Integer> batchSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (StubMailService.Call call : service.calls("del_email")) {
+            sizes.add(call.params.get("email_ids[]").size());
+        }
+        return sizes;
+    }
+
+    private void assertForgotten(String address) {
+        assertEquals(1, service.calls("forget_me").stream().filter(call -> address.equals(call.param("email_addr"))).count(),
+                "forget_me calls for " + address + ": " + service.calls("forget_me"));
+    }
+
+    private void awaitForgotten(String address) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.calls("forget_me").stream().noneMatch(call -> address.equals(call.param("email_addr")))) {
+            assertTrue(System.currentTimeMillis() < deadline, "no forget_me for " + address);
+            Thread.sleep(20);
+        }
+    }
+
+    private static String last(List<String> values) {
+        return values.get(values.size() - 1);
+    }
+}
@@ -0,0 +1,160 @@
+package mail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Пул заранее открытых случайных ящиков, каждый со своим сеансом.</code><br>
+ * Пул держит наготове до <code>warmSize</code> ящиков и пополняется в фоне, поэтому {@link #acquire()} обычно не ждёт
+ * <code>set_email_user</code>. Ящики не используются повторно: {@link #release(GuerrillaSession)} передаёт ящик
+ * в {@link InboxLifecycleManager} для фоновой очистки. Все методы потокобезопасны.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Pool of pre-opened random inboxes, each with its own session.</code><br>
+ * The pool keeps up to <code>warmSize</code> inboxes ready and refills in the background, so {@link #acquire()} usually
+ * does not wait for <code>set_email_user</code>. Inboxes are never reused: {@link #release(GuerrillaSession)} hands the
+ * inbox to an {@link InboxLifecycleManager} for background cleanup. All methods are thread-safe.<br>
+ * </p>
+ * <p>
+ * Default size: <code>-Dguerrillamail.pool.size</code> (2). Every warm inbox is a real session that is opened at
+ * startup and cleaned up later, so the default stays small; raise it for suites with many parallel tests.
+ */
+public class InboxPool implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(InboxPool.class.getName());
+    private static final int DEFAULT_WARM_SIZE = 2;
+    private static final long REFILL_SHUTDOWN_SECONDS = 30;
+
+    private final InboxLifecycleManager lifecycle;
+    private final int warmSize;
+    private final LinkedBlockingQueue<GuerrillaSession> warm = new LinkedBlockingQueue<>();
+    private final AtomicInteger refilling = new AtomicInteger();
+    private final ExecutorService refillPool;
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of <code>guerrillamail.pool.size</code> inboxes (пул из <code>guerrillamail.pool.size</code> ящиков)
+     */
+    public InboxPool() {
+        this(new InboxLifecycleManager(), Integer.getInteger("guerrillamail.pool.size", DEFAULT_WARM_SIZE));
+    }
+
+    /**
+     * @param lifecycle the manager that tracks and cleans up the inboxes, closed with the pool (менеджер ящиков, закрывается вместе с пулом)
+     * @param warmSize  how many inboxes to keep ready (сколько ящиков держать наготове)
+     */
+    public InboxPool(InboxLifecycleManager lifecycle, int warmSize) {
+        if (warmSize < 0) {
+            throw new IllegalArgumentException("warmSize must not be negative");
+        }
+        this.lifecycle = lifecycle;
+        this.warmSize = warmSize;
+        this.refillPool = Executors.newFixedThreadPool(Math.max(1, Math.min(warmSize, 8)), InboxLifecycleManager.daemonThreads("inbox-pool"));
+        refill();
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Выдаёт ящик из пула или, если пул пуст, открывает новый в текущем потоке.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Hands out an inbox from the pool or, if the pool is empty, opens a new one on the calling thread.</code><br>
+     * </p>
+     *
+     * @return an inbox used by nobody else <code>(ящик, которым больше никто не пользуется)</code>
+     * @throws Exception if a new session could not be opened (если не удалось открыть новый сеанс)
+     */
+    public GuerrillaSession acquire() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Inbox pool is closed");
+        }
+        try {
+            GuerrillaSession session;
+            while ((session = warm.poll()) != null) {
+                if (!session.isExpired()) {
+                    return session;
+                }
+                lifecycle.release(session); // Went stale while waiting in the pool
+            }
+            if (closed) {
+                throw new IllegalStateException("Inbox pool is closed"); // Do not open an inbox nobody would clean up
+            }
+            return lifecycle.provision();
+        } finally {
+            refill();
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Возвращает ящик после использования: он очищается в фоне и больше не выдаётся.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Returns an inbox after use: it is cleaned up in the background and never handed out again.</code><br>
+     * </p>
+     *
+     * @param session the inbox from {@link #acquire()} (ящик из {@link #acquire()})
+     * @return the cleanup completion <code>(завершение очистки)</code>
+     */
+    public CompletableFuture<Void> release(GuerrillaSession session) {
+        return lifecycle.release(session);
+    }
+
+    /**
+     * @return the number of inboxes ready to be handed out (число ящиков, готовых к выдаче)
+     */
+    public int warmInboxes() {
+        return warm.size();
+    }
+
+    private void refill() {
+        while (!closed && warm.size() + refilling.get() < warmSize) {
+            refilling.incrementAndGet();
+            refillPool.execute(() -> {
+                try {
+                    if (!closed) {
+                        warm.add(lifecycle.provision());
+                    }
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to open a pooled inbox", e);
+                } finally {
+                    refilling.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Останавливает пополнение и очищает все ящики, включая ещё не выданные.</code><br>
+     * Ждёт до 30 секунд пополнения, которые ещё выполняют <code>set_email_user</code>, а затем до 60 секунд очистки
+     * в {@link InboxLifecycleManager#close()}, то есть блокируется не более чем на 90 секунд.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Stops refilling and cleans up every inbox, including the ones not handed out yet.</code><br>
+     * Waits up to 30 seconds for refills still in <code>set_email_user</code>, then up to 60 seconds for the cleanup in
+     * {@link InboxLifecycleManager#close()}, so it blocks for 90 seconds at most.<br>
+     * </p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refillPool.shutdown();
+        try {
+            // A refill still in set_email_user would otherwise register its inbox after the manager stopped tracking
+            if (!refillPool.awaitTermination(REFILL_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Pooled inbox refills did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        warm.clear();
+        lifecycle.close(); // Still tracks the warm inboxes, so they are cleaned up too
+    }
+}
@@ -0,0 +1,88 @@
+package mail;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Расширение JUnit 5, которое передаёт в каждый тест отдельный ящик ({@link GuerrillaSession}) из общего {@link InboxPool}.</code><br>
+ * Пул создаётся один раз на весь запуск в корневом хранилище JUnit и закрывается в его конце. После теста ящик
+ * передаётся на фоновую очистку, не задерживая следующий тест. Тесты с такими ящиками не используют статическое
+ * состояние {@link GuerrillaMailApi} и могут выполняться параллельно
+ * (<code>junit.jupiter.execution.parallel.enabled=true</code>).<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>JUnit 5 extension that injects an isolated inbox ({@link GuerrillaSession}) from a shared {@link InboxPool} into every test.</code><br>
+ * The pool is created once per run in the JUnit root store and closed at its end. After the test the inbox is handed
+ * to background cleanup without holding up the next test. Tests using these inboxes do not touch the static state of
+ * {@link GuerrillaMailApi} and can run in parallel (<code>junit.jupiter.execution.parallel.enabled=true</code>).<br>
+ * </p>
+ * <pre>
+ * &#64;Test
+ * &#64;ExtendWith(InboxPoolExtension.class)
+ * void signUp(GuerrillaSession inbox) { ... }
+ * </pre>
+ */
+public class InboxPoolExtension implements ParameterResolver, AfterEachCallback {
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(InboxPoolExtension.class);
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        return parameterContext.getParameter().getType() == GuerrillaSession.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        InboxPool pool = extensionContext.getRoot().getStore(NAMESPACE)
+                .getOrComputeIfAbsent(PooledInboxes.class, key -> new PooledInboxes(), PooledInboxes.class).pool;
+        try {
+            GuerrillaSession session = pool.acquire();
+            acquired(extensionContext).add(session);
+            return session;
+        } catch (Exception e) {
+            throw new ParameterResolutionException("Failed to acquire a pooled inbox", e);
+        }
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) {
+        List<GuerrillaSession> sessions = context.getStore(NAMESPACE).remove(AcquiredInboxes.class, AcquiredInboxes.class);
+        if (sessions == null) {
+            return;
+        }
+        PooledInboxes pooled = context.getRoot().getStore(NAMESPACE).get(PooledInboxes.class, PooledInboxes.class);
+        for (GuerrillaSession session : sessions) {
+            pooled.pool.release(session); // Not awaited, the cleanup runs in the background
+        }
+    }
+
+    private static List<GuerrillaSession> acquired(ExtensionContext context) {
+        // Each test has its own context, so parallel tests never share this list
+        return context.getStore(NAMESPACE).getOrComputeIfAbsent(AcquiredInboxes.class, key -> new AcquiredInboxes(), AcquiredInboxes.class);
+    }
+
+    /**
+     * The run-wide pool, closed by JUnit when the root context ends (пул на весь запуск, закрывается JUnit в конце)
+     */
+    private static final class PooledInboxes implements ExtensionContext.Store.CloseableResource {
+        private final InboxPool pool = new InboxPool();
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
+
+    /**
+     * Inboxes injected into one test (ящики, переданные в один тест)
+     */
+    private static final class AcquiredInboxes extends CopyOnWriteArrayList<GuerrillaSession> {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,96 @@
+package mail;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Потокобезопасная гистограмма задержек в стиле HdrHistogram.</code><br>
+ * Значения (в микросекундах) раскладываются по логарифмически-линейным корзинам: до 128 — точно, дальше каждая степень
+ * двойки делится на 64 корзины, поэтому относительная погрешность перцентилей не превышает ~1.6%. Память фиксирована.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Thread-safe HdrHistogram-style latency histogram.</code><br>
+ * Values (in microseconds) are placed into log-linear buckets: exact up to 128, then every power of two is split into
+ * 64 buckets, so the relative error of percentiles stays below ~1.6%. Memory use is fixed.<br>
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_LIMIT = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int BUCKETS = (63 - 6) * SUB_BUCKETS + LINEAR_LIMIT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param micros the latency in microseconds, negative values count as 0 (задержка в микросекундах, отрицательные считаются 0)
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(value);
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalMicros.get() / count;
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Возвращает значение, ниже или равно которому находится заданный процент записей.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Returns the value at or below which the given percentage of records falls.</code><br>
+     * </p>
+     *
+     * @param percentile the percentile between 0 and 100 (перцентиль от 0 до 100)
+     * @return the upper bound of the matching bucket in microseconds, 0 if empty <code>(верхняя граница корзины в микросекундах)</code>
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6; // value >>> shift falls in [64, 127]
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        long upper = ((subBucket + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper; // The last bucket reaches past Long.MAX_VALUE
+    }
+}
@@ -0,0 +1,75 @@
+package mail;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link LatencyHistogram}: границы корзин, точность перцентилей и крайние случаи.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link LatencyHistogram}: bucket bounds, percentile accuracy and edge cases.</code><br>
+ * </p>
+ */
+public class LatencyHistogramTest {
+    private static final long[] VALUES = {0, 1, 63, 64, 127, 128, 129, 130, 255, 256, 257, 1_000, 4_095, 4_096,
+            123_456, 1_000_000, 60_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+
+    @Test
+    public void bucketsContainTheirValues() {
+        for (long value : VALUES) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(upper >= value, "upper bound " + upper + " below " + value);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.upperBoundOf(bucket - 1) < value, "previous bucket holds " + value);
+            }
+            assertTrue(upper - value <= value / 64, "bucket of " + value + " is too wide: " + upper);
+        }
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        for (long value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value)));
+        }
+        assertEquals(LatencyHistogram.bucketOf(128), LatencyHistogram.bucketOf(129));
+        assertEquals(LatencyHistogram.bucketOf(128) + 1, LatencyHistogram.bucketOf(130));
+    }
+
+    @Test
+    public void reportsPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1_000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(1_000, histogram.getMaxMicros());
+        assertEquals(500.5, histogram.getMeanMicros(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertPercentile(500, histogram.getValueAtPercentile(50));
+        assertPercentile(900, histogram.getValueAtPercentile(90));
+        assertPercentile(990, histogram.getValueAtPercentile(99));
+        assertEquals(1_000, histogram.getValueAtPercentile(100)); // Capped by the maximum, not the bucket bound
+    }
+
+    @Test
+    public void handlesEmptyAndNegativeRecords() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMeanMicros());
+        histogram.record(-5);
+        histogram.record(10);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(5.0, histogram.getMeanMicros(), 1e-9);
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 64,
+                "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,231 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Генератор нагрузки и раннер soak-тестов для сценария: создать ящик → дождаться письма → прочитать → удалить.</code><br>
+ * Запускает заданное число параллельных потоков с плавным разгоном (ramp-up) на заданное время и печатает пропускную
+ * способность и перцентили задержек по каждой функции ajax.php. URL API задаётся параметром <code>apiUrl</code>,
+ * поэтому вместо сервиса можно использовать локальную заглушку.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Load generator and soak-test runner for the scenario: provision inbox → await email → fetch → delete.</code><br>
+ * It runs the given number of concurrent workers with a gradual ramp-up for the given duration and prints throughput
+ * and latency percentiles per ajax.php function. The API URL is set with the <code>apiUrl</code> option, so a local stub
+ * can stand in for the service.<br>
+ * </p>
+ * <p>
+ * Usage: <code>./gradlew loadTest -PloadArgs="concurrency=50 duration=10m rampUp=1m apiUrl=http://localhost:8080/ajax.php"</code>
+ */
+public class LoadScenarioRunner {
+    private static final String SCENARIO = "scenario";
+
+    private final int concurrency;
+    private final Duration duration;
+    private final Duration rampUp;
+    private final Duration awaitTimeout;
+    private final Duration pollInterval;
+    private final InboxLifecycleManager lifecycle;
+    private final Map<String, FunctionStats> stats = new ConcurrentSkipListMap<>();
+    private final AtomicLong awaitTimeouts = new AtomicLong();
+    private volatile long elapsedNanos;
+
+    /**
+     * @param concurrency  the number of concurrent scenario workers (число параллельных потоков сценария)
+     * @param duration     how long to run in total, ramp-up included (общее время работы, включая разгон)
+     * @param rampUp       the time over which workers are started evenly (время, за которое равномерно стартуют потоки)
+     * @param awaitTimeout how long a scenario waits for an email (сколько сценарий ждёт письмо)
+     * @param pollInterval the pause between check_email polls (пауза между опросами check_email)
+     */
+    public LoadScenarioRunner(int concurrency, Duration duration, Duration rampUp, Duration awaitTimeout, Duration pollInterval) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.rampUp = rampUp;
+        this.awaitTimeout = awaitTimeout;
+        this.pollInterval = pollInterval;
+        this.lifecycle = new InboxLifecycleManager(GuerrillaSession.DEFAULT_TTL, concurrency, 20); // One cleanup per worker
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Точка входа. Параметры задаются как key=value.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Entry point. Options are given as key=value.</code><br>
+     * </p>
+     * Options: <code>concurrency</code> (10), <code>duration</code> (60s), <code>rampUp</code> (10s),
+     * <code>await</code> (30s), <code>poll</code> (2s), <code>apiUrl</code>. Durations accept ms, s, m and h suffixes.
+     *
+     * @param args the options (параметры)
+     * @throws InterruptedException if interrupted while running (если прерван во время работы)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got: " + arg);
+            }
+            options.put(keyValue[0].replaceFirst("^--", ""), keyValue[1]);
+        }
+        if (options.containsKey("apiUrl")) {
+            GuerrillaMailApi.setApiUrl(options.get("apiUrl"));
+        }
+        LoadScenarioRunner runner = new LoadScenarioRunner(
+                Integer.parseInt(options.getOrDefault("concurrency", "10")),
+                Durations.parse(options.getOrDefault("duration", "60s")),
+                Durations.parse(options.getOrDefault("rampUp", "10s")),
+                Durations.parse(options.getOrDefault("await", "30s")),
+                Durations.parse(options.getOrDefault("poll", "2s")));
+        runner.run();
+        System.out.println(runner.report());
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Запускает нагрузку и блокируется до её окончания.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Runs the load and blocks until it is over.</code><br>
+     * </p>
+     *
+     * @throws InterruptedException if interrupted while waiting (если прерван во время ожидания)
+     */
+    public void run() throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + duration.toNanos();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, InboxLifecycleManager.daemonThreads("load-worker"));
+        for (int worker = 0; worker < concurrency; worker++) {
+            long startAt = startNanos + rampUp.toNanos() * worker / concurrency;
+            workers.execute(() -> {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(startAt - System.nanoTime());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        timed(SCENARIO, () -> {
+                            runScenario(deadline);
+                            return null;
+                        });
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        // Already counted as an error of the failed function and of the scenario
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(duration.plus(awaitTimeout).toMillis() + 60_000, TimeUnit.MILLISECONDS)) {
+            workers.shutdownNow();
+        }
+        elapsedNanos = System.nanoTime() - startNanos;
+        lifecycle.close(); // Waits for the inboxes still being cleaned up
+    }
+
+    private void runScenario(long deadline) throws Exception {
+        GuerrillaSession session = timed("set_email_user", lifecycle::provision);
+        try {
+            List<Integer> mailIds = awaitEmails(session, Math.min(deadline, System.nanoTime() + awaitTimeout.toNanos()));
+            if (mailIds.isEmpty()) {
+                awaitTimeouts.incrementAndGet();
+                throw new TimeoutException("No email within " + awaitTimeout); // A failed scenario, not a fast one
+            }
+            for (int mailId : mailIds) {
+                timed("fetch_email", () -> GuerrillaMailApi.callSession(session, ApiRequest.fetchEmail(mailId)));
+            }
+            timed("del_email", () -> GuerrillaMailApi.callSession(session, ApiRequest.delEmail(mailIds)));
+        } finally {
+            session.close(); // del_email and forget_me in the background, outside the measured scenario
+        }
+    }
+
+    private List<Integer> awaitEmails(GuerrillaSession session, long deadline) throws Exception {
+        List<Integer> mailIds = new ArrayList<>();
+        while (true) {
+            JSONObject listing = timed("check_email", () -> GuerrillaMailApi.callSession(session, ApiRequest.checkEmail(session.getSeq())));
+            JSONArray emailList = listing.optJSONArray("list");
+            if (emailList != null) {
+                for (int i = 0; i < emailList.length(); i++) {
+                    int mailId = emailList.getJSONObject(i).getInt("mail_id");
+                    mailIds.add(mailId);
+                    session.setSeq(Math.max(session.getSeq(), mailId));
+                }
+            }
+            if (!mailIds.isEmpty() || System.nanoTime() + pollInterval.toNanos() >= deadline) {
+                return mailIds;
+            }
+            GuerrillaMailApi.getTransport().sleep(pollInterval.toMillis());
+        }
+    }
+
+    private <T> T timed(String function, Callable<T> call) throws Exception {
+        FunctionStats functionStats = stats.computeIfAbsent(function, name -> new FunctionStats());
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            functionStats.latency.record((System.nanoTime() - start) / 1000);
+            return result;
+        } catch (Exception e) {
+            functionStats.errors.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Формирует отчёт: число вызовов, ошибок, пропускную способность и перцентили задержек (мс) по функциям.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Builds the report: calls, errors, throughput and latency percentiles (ms) per function.</code><br>
+     * </p>
+     *
+     * @return the report as a table <code>(отчёт в виде таблицы)</code>
+     */
+    public String report() {
+        double seconds = Math.max(1, elapsedNanos) / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d workers, %.1fs, %d await timeouts%n", concurrency, seconds, awaitTimeouts.get()));
+        report.append(String.format("%-15s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "function", "count", "errors", "per sec", "p50", "p90", "p99", "p99.9", "max"));
+        for (Map.Entry<String, FunctionStats> entry : stats.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            report.append(String.format("%-15s %9d %7d %9.2f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    entry.getKey(), latency.getCount(), entry.getValue().errors.get(), latency.getCount() / seconds,
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                    latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                    latency.getMaxMicros() / 1000.0));
+        }
+        return report.toString();
+    }
+
+    public LatencyHistogram getLatency(String function) {
+        FunctionStats functionStats = stats.get(function);
+        return functionStats == null ? null : functionStats.latency;
+    }
+
+    private static final class FunctionStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+    }
+}
@@ -0,0 +1,326 @@
+package mail;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Тело письма, которое хранится в памяти или, если оно слишком велико, во временном файле.</code><br>
+ * Тело больше <code>maxInMemoryChars</code> символов, или не помещающееся в общий бюджет <code>heapBudgetChars</code>,
+ * записывается на диск (UTF-16, чтобы {@link #charAt(int)} читал по смещению) и доступно лениво через
+ * {@link CharSequence}, {@link #openReader()} и {@link #writeTo(Appendable)}. Общий объём тел в памяти учитывается
+ * глобально ({@link #heapChars()}) и освобождается в {@link #close()} или при сборке мусора.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Email body kept in memory or, if it is too large, in a temporary file.</code><br>
+ * A body above <code>maxInMemoryChars</code> characters, or one that does not fit into the global
+ * <code>heapBudgetChars</code>, is written to disk (as UTF-16, so {@link #charAt(int)} reads by offset) and is available
+ * lazily through {@link CharSequence}, {@link #openReader()} and {@link #writeTo(Appendable)}. The total size of
+ * in-memory bodies is tracked globally ({@link #heapChars()}) and released on {@link #close()} or garbage collection.<br>
+ * </p>
+ * <p>
+ * Limits: <code>-Dguerrillamail.body.maxInMemoryChars</code> (262144) and <code>-Dguerrillamail.body.heapBudgetChars</code> (16777216).
+ */
+public final class MailBody implements CharSequence, Closeable {
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong HEAP_CHARS = new AtomicLong();
+    private static final int WINDOW_CHARS = 4096;
+    private static volatile int maxInMemoryChars = Integer.getInteger("guerrillamail.body.maxInMemoryChars", 256 * 1024);
+    private static volatile long heapBudgetChars = Long.getLong("guerrillamail.body.heapBudgetChars", 16L * 1024 * 1024);
+
+    private final String text; // null when the body is on disk
+    private final Path file;
+    private final int length;
+    private final Release release;
+    private final Cleaner.Cleanable cleanable;
+    private final char[] window;
+    private int windowStart = -1;
+    private int windowLength;
+
+    private MailBody(String text, Path file, int length) {
+        this.text = text;
+        this.file = file;
+        this.length = length;
+        this.release = new Release(text == null ? 0 : length, file);
+        this.cleanable = CLEANER.register(this, release);
+        this.window = file == null ? null : new char[WINDOW_CHARS];
+    }
+
+    /**
+     * @param content the body text (текст тела)
+     * @return the body, spilled to disk if it exceeds the limits <code>(тело, выгруженное на диск при превышении лимитов)</code>
+     */
+    public static MailBody of(CharSequence content) {
+        Builder builder = new Builder();
+        builder.append(content);
+        return builder.build();
+    }
+
+    /**
+     * @return the characters currently held in memory by all open bodies (символы, которые сейчас держат в памяти все открытые тела)
+     */
+    public static long heapChars() {
+        return HEAP_CHARS.get();
+    }
+
+    public static int getMaxInMemoryChars() {
+        return maxInMemoryChars;
+    }
+
+    public static void setMaxInMemoryChars(int maxInMemoryChars) {
+        MailBody.maxInMemoryChars = maxInMemoryChars;
+    }
+
+    public static long getHeapBudgetChars() {
+        return heapBudgetChars;
+    }
+
+    public static void setHeapBudgetChars(long heapBudgetChars) {
+        MailBody.heapBudgetChars = heapBudgetChars;
+    }
+
+    public boolean isSpilled() {
+        return text == null;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (text != null) {
+            return text.charAt(index);
+        }
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        synchronized (window) {
+            if (index < windowStart || index >= windowStart + windowLength) {
+                windowStart = index - index % WINDOW_CHARS;
+                windowLength = read(windowStart, window, Math.min(WINDOW_CHARS, length - windowStart));
+            }
+            return window[index - windowStart];
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (text != null) {
+            return text.subSequence(start, end);
+        }
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length);
+        }
+        char[] chars = new char[end - start];
+        read(start, chars, chars.length);
+        return new String(chars);
+    }
+
+    private int read(int start, char[] target, int count) {
+        try {
+            FileChannel channel = release.channel();
+            ByteBuffer bytes = ByteBuffer.allocate(count * 2);
+            long position = start * 2L;
+            while (bytes.hasRemaining()) {
+                int read = channel.read(bytes, position + bytes.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+            bytes.flip();
+            int chars = bytes.remaining() / 2;
+            bytes.asCharBuffer().get(target, 0, chars);
+            return chars;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled body " + file, e);
+        }
+    }
+
+    /**
+     * @return a reader over the body that does not load it into memory (поток чтения тела без загрузки в память)
+     * @throws IOException if the spilled file could not be opened (если не удалось открыть файл тела)
+     */
+    public Reader openReader() throws IOException {
+        if (text != null) {
+            return new StringReader(text);
+        }
+        return new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_16BE));
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Записывает тело в <code>out</code> частями, не собирая его в одну строку.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Writes the body to <code>out</code> in chunks without building a single string.</code><br>
+     * </p>
+     *
+     * @param out the destination, e.g. System.out (получатель, например System.out)
+     * @throws IOException if reading or writing fails (если чтение или запись не удались)
+     */
+    public void writeTo(Appendable out) throws IOException {
+        if (text != null) {
+            out.append(text);
+            return;
+        }
+        try (Reader reader = openReader()) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                out.append(CharBuffer.wrap(buffer, 0, read));
+            }
+        }
+    }
+
+    /**
+     * @return the whole body as a string; for spilled bodies this loads it into memory (всё тело строкой; выгруженное тело загружается в память)
+     */
+    @Override
+    public String toString() {
+        return text != null ? text : subSequence(0, length).toString();
+    }
+
+    /**
+     * Releases the heap accounting and deletes the spilled file (освобождает учёт памяти и удаляет файл тела)
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+    /**
+     * Runs once, on close or after the body became unreachable (выполняется один раз: при закрытии или после сборки мусора)
+     */
+    private static final class Release implements Runnable {
+        private final long heapChars;
+        private final Path file;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private FileChannel channel;
+
+        Release(long heapChars, Path file) {
+            this.heapChars = heapChars;
+            this.file = file;
+            HEAP_CHARS.addAndGet(heapChars);
+        }
+
+        synchronized FileChannel channel() throws IOException {
+            if (released.get()) {
+                throw new IOException("Body is closed");
+            }
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        @Override
+        public void run() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            HEAP_CHARS.addAndGet(-heapChars);
+            if (file != null) {
+                synchronized (this) {
+                    try {
+                        if (channel != null) {
+                            channel.close();
+                        }
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        file.toFile().deleteOnExit();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Собирает тело по частям: в памяти до лимита, затем продолжает запись во временный файл.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Builds a body piece by piece: in memory up to the limit, then continues into a temporary file.</code><br>
+     * </p>
+     */
+    public static final class Builder implements Appendable {
+        private StringBuilder memory = new StringBuilder();
+        private Writer spill;
+        private Path file;
+        private int length;
+
+        @Override
+        public Builder append(CharSequence chars) {
+            return append(chars, 0, chars.length());
+        }
+
+        @Override
+        public Builder append(CharSequence chars, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (spill != null) {
+                    try {
+                        spill.append(chars, i, end); // Already on disk, the rest goes there in one piece
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to spill body to disk", e);
+                    }
+                    length += end - i;
+                    return this;
+                }
+                append(chars.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Builder append(char c) {
+            length++;
+            try {
+                if (spill != null) {
+                    spill.write(c);
+                    return this;
+                }
+                memory.append(c);
+                if (memory.length() > maxInMemoryChars || HEAP_CHARS.get() + memory.length() > heapBudgetChars) {
+                    file = Files.createTempFile("guerrillamail-body-", ".utf16");
+                    spill = new OutputStreamWriter(new BufferedOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_16BE);
+                    spill.append(memory);
+                    memory = null;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to spill body to disk", e);
+            }
+            return this;
+        }
+
+        public MailBody build() {
+            if (spill == null) {
+                return new MailBody(memory.toString(), null, length);
+            }
+            try {
+                spill.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to spill body to disk", e);
+            }
+            return new MailBody(null, file, length);
+        }
+    }
+}
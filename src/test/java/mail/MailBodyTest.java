@@ -0,0 +1,117 @@
+package mail;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link MailBody}: порог выгрузки на диск, чтение выгруженного тела и учёт памяти.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link MailBody}: the spill threshold, reading a spilled body and heap accounting.</code><br>
+ * </p>
+ */
+public class MailBodyTest {
+    private static final int LIMIT = 100;
+
+    @Test
+    public void keepsBodiesUpToTheLimitInMemory() {
+        int previous = MailBody.getMaxInMemoryChars();
+        MailBody.setMaxInMemoryChars(LIMIT);
+        try (MailBody small = MailBody.of(text(LIMIT)); MailBody large = MailBody.of(text(LIMIT + 1))) {
+            assertFalse(small.isSpilled());
+            assertTrue(large.isSpilled());
+            assertEquals(text(LIMIT + 1), large.toString());
+        } finally {
+            MailBody.setMaxInMemoryChars(previous);
+        }
+    }
+
+    @Test
+    public void readsSpilledBodyConsistently() throws IOException {
+        int previous = MailBody.getMaxInMemoryChars();
+        MailBody.setMaxInMemoryChars(LIMIT);
+        String expected = text(10_000); // Spans several read windows
+        try (MailBody body = MailBody.of(expected)) {
+            assertTrue(body.isSpilled());
+            assertEquals(expected.length(), body.length());
+            for (int index : new int[]{0, 1, 4095, 4096, 4097, 8191, 8192, 9999, 17, 5000}) {
+                assertEquals(expected.charAt(index), body.charAt(index), "charAt " + index);
+            }
+            assertEquals(expected.substring(4000, 4200), body.subSequence(4000, 4200).toString());
+            assertEquals("", body.subSequence(10_000, 10_000).toString());
+            assertEquals(expected, body.toString());
+            StringBuilder written = new StringBuilder();
+            body.writeTo(written);
+            assertEquals(expected, written.toString());
+            StringBuilder read = new StringBuilder();
+            try (Reader reader = body.openReader()) {
+                char[] buffer = new char[333];
+                int count;
+                while ((count = reader.read(buffer)) != -1) {
+                    read.append(buffer, 0, count);
+                }
+            }
+            assertEquals(expected, read.toString());
+            assertThrows(IndexOutOfBoundsException.class, () -> body.charAt(10_000));
+            assertThrows(IndexOutOfBoundsException.class, () -> body.subSequence(5, 4));
+        } finally {
+            MailBody.setMaxInMemoryChars(previous);
+        }
+    }
+
+    @Test
+    public void buildsTheSameBodyFromPieces() {
+        int previous = MailBody.getMaxInMemoryChars();
+        MailBody.setMaxInMemoryChars(LIMIT);
+        String expected = text(LIMIT * 3);
+        MailBody.Builder builder = new MailBody.Builder();
+        builder.append(expected, 0, 50).append(expected.charAt(50)).append(expected, 51, 250).append(expected.substring(250));
+        try (MailBody body = builder.build()) {
+            assertTrue(body.isSpilled());
+            assertEquals(expected, body.toString());
+        } finally {
+            MailBody.setMaxInMemoryChars(previous);
+        }
+    }
+
+    @Test
+    public void releasesHeapAndFileOnClose() {
+        int previous = MailBody.getMaxInMemoryChars();
+        MailBody.setMaxInMemoryChars(LIMIT);
+        try {
+            long before = MailBody.heapChars();
+            MailBody small = MailBody.of(text(LIMIT));
+            assertEquals(before + LIMIT, MailBody.heapChars());
+            small.close();
+            small.close(); // Closing twice must not release twice
+            assertEquals(before, MailBody.heapChars());
+            MailBody large = MailBody.of(text(LIMIT * 2));
+            assertEquals(before, MailBody.heapChars()); // Spilled bodies are not counted
+            large.close();
+            assertThrows(UncheckedIOException.class, () -> large.charAt(0));
+        } finally {
+            MailBody.setMaxInMemoryChars(previous);
+        }
+    }
+
+    /**
+     * Mixed Latin, Cyrillic and surrogate pairs to check the UTF-16 round trip (латиница, кириллица и суррогатные пары)
+     */
+    private static String text(int length) {
+        String alphabet = "abcXYZ 019 Привет 📧 <a href=\"x\">\n";
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; text.length() < length; i++) {
+            text.append(alphabet.charAt(i % alphabet.length()));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,491 @@
+package mail;
+
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Инвертированный индекс в памяти по всем письмам, полученным клиентом во всех ящиках.</code><br>
+ * Индексируются отправитель (адрес и домен), слова темы, алиас получателя и ссылки из тела письма (URL и хост).
+ * Каждое письмо получает номер документа, а списки вхождений хранятся как отсортированные массивы <code>int</code>,
+ * поэтому запросы вида «письмо от X с Y в теме в любом ящике» выполняются пересечением массивов без обхода ящиков.
+ * Письмо определяется адресом ящика (без учёта регистра) и mail_id; удалённые письма и забытые ящики убираются из индекса
+ * через {@link #remove(String, long)} и {@link #removeInbox(String)}.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>In-memory inverted index over every email the client received, across all inboxes.</code><br>
+ * It indexes the sender (address and domain), subject words, recipient alias and links from the body (URL and host).
+ * Every email gets a document number and postings are kept as sorted <code>int</code> arrays, so queries such as
+ * "mail from X with Y in the subject in any inbox" are answered by intersecting arrays instead of scanning inboxes.
+ * An email is identified by its inbox address (case-insensitive) and mail_id; deleted emails and forgotten inboxes are
+ * dropped from the index with {@link #remove(String, long)} and {@link #removeInbox(String)}.<br>
+ * </p>
+ */
+public class MailIndex {
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern LINK = Pattern.compile("https?://[^\\s\"'<>]+", Pattern.CASE_INSENSITIVE);
+
+    private static final String INBOX = "inbox:"; // Internal term listing the documents of an inbox
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> documentIds = new HashMap<>();
+    private final List<List<Postings>> documentPostings = new ArrayList<>(); // Null once removed
+    private String[] documentInbox = new String[1024];
+    private long[] documentMailId = new long[1024];
+    private int documents;
+    private int removed;
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Индексирует элемент списка из check_email или get_email_list.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Indexes a list item from check_email or get_email_list.</code><br>
+     * </p>
+     *
+     * @param inbox     the address of the session the email was listed in (адрес сеанса, в котором получено письмо)
+     * @param emailItem the list item (элемент списка)
+     */
+    public void addListing(String inbox, JSONObject emailItem) {
+        add(inbox, emailItem, null);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Индексирует ответ fetch_email, включая получателя и ссылки из тела письма.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Indexes a fetch_email response, including the recipient and links from the body.</code><br>
+     * </p>
+     *
+     * @param inbox the address of the session the email was fetched in, not the mail_recipient alias
+     *              (адрес сеанса, в котором получено письмо, а не алиас mail_recipient)
+     * @param email the fetch_email response (ответ fetch_email)
+     */
+    public void addFetched(String inbox, JSONObject email) {
+        add(inbox, email, email.optString("mail_body", null));
+    }
+
+    private void add(String inbox, JSONObject email, String body) {
+        if (inbox == null || !email.has("mail_id")) {
+            return;
+        }
+        String inboxAddress = inboxKey(inbox);
+        long mailId = email.getLong("mail_id");
+        String recipient = email.optString("mail_recipient", inboxAddress);
+        String from = email.optString("mail_from", "").toLowerCase(Locale.ROOT);
+        String subject = email.optString("mail_subject", "");
+        List<String> links = body == null ? List.of() : extractLinks(body);
+        lock.writeLock().lock();
+        try {
+            int document = documentOf(inboxAddress, mailId);
+            post(INBOX + inboxAddress, document);
+            if (!from.isEmpty()) {
+                post("from:" + from, document);
+                post("domain:" + from.substring(from.indexOf('@') + 1), document);
+            }
+            for (String token : tokenize(subject)) {
+                post("subject:" + token, document);
+            }
+            post("to:" + recipient.split("@")[0].toLowerCase(Locale.ROOT), document);
+            for (String link : links) {
+                post("link:" + link, document);
+                String host = hostOf(link);
+                if (host != null) {
+                    post("host:" + host, document);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int documentOf(String inbox, long mailId) {
+        String key = inbox + "#" + mailId;
+        Integer existing = documentIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (documents == documentInbox.length) {
+            documentInbox = Arrays.copyOf(documentInbox, documents * 2);
+            documentMailId = Arrays.copyOf(documentMailId, documents * 2);
+        }
+        int document = documents++;
+        documentInbox[document] = inbox;
+        documentMailId[document] = mailId;
+        documentPostings.add(new ArrayList<>());
+        documentIds.put(key, document);
+        return document;
+    }
+
+    private void post(String term, int document) {
+        Postings list = postings.computeIfAbsent(term, Postings::new);
+        if (list.add(document)) {
+            documentPostings.get(document).add(list); // To find the postings again on removal
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Убирает письмо из индекса, например после del_email.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Drops an email from the index, e.g. after del_email.</code><br>
+     * </p>
+     *
+     * @param inbox  the address of the session the email was indexed for (адрес сеанса, для которого индексировано письмо)
+     * @param mailId the email ID (ID письма)
+     * @return true if the email was indexed <code>(true, если письмо было в индексе)</code>
+     */
+    public boolean remove(String inbox, long mailId) {
+        lock.writeLock().lock();
+        try {
+            Integer document = documentIds.remove(inboxKey(inbox) + "#" + mailId);
+            if (document == null) {
+                return false;
+            }
+            removeDocument(document);
+            compactIfSparse();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Убирает из индекса все письма ящика, например после forget_me.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Drops every email of an inbox from the index, e.g. after forget_me.</code><br>
+     * </p>
+     *
+     * @param inbox the address of the session (адрес сеанса)
+     * @return the number of dropped emails <code>(число убранных писем)</code>
+     */
+    public int removeInbox(String inbox) {
+        lock.writeLock().lock();
+        try {
+            Postings inboxDocuments = postings.get(INBOX + inboxKey(inbox));
+            if (inboxDocuments == null) {
+                return 0;
+            }
+            int[] dropped = Arrays.copyOf(inboxDocuments.documents, inboxDocuments.size);
+            for (int document : dropped) {
+                documentIds.remove(documentInbox[document] + "#" + documentMailId[document]);
+                removeDocument(document);
+            }
+            compactIfSparse();
+            return dropped.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDocument(int document) {
+        for (Postings list : documentPostings.get(document)) {
+            if (list.remove(document) == 0) {
+                postings.remove(list.term);
+            }
+        }
+        documentPostings.set(document, null);
+        documentInbox[document] = null;
+        removed++;
+    }
+
+    /**
+     * Renumbers the remaining documents once most of them are removed, so the arrays do not keep growing
+     * (перенумеровывает оставшиеся документы, когда большинство удалено, чтобы массивы не росли бесконечно)
+     */
+    private void compactIfSparse() {
+        if (removed < COMPACT_THRESHOLD || removed * 2 < documents) {
+            return;
+        }
+        int[] renumbered = new int[documents];
+        int live = 0;
+        for (int document = 0; document < documents; document++) {
+            if (documentPostings.get(document) != null) {
+                renumbered[document] = live;
+                documentInbox[live] = documentInbox[document];
+                documentMailId[live] = documentMailId[document];
+                documentPostings.set(live++, documentPostings.get(document));
+            }
+        }
+        Arrays.fill(documentInbox, live, documents, null);
+        documentPostings.subList(live, documents).clear();
+        for (Postings list : postings.values()) {
+            for (int i = 0; i < list.size; i++) {
+                list.documents[i] = renumbered[list.documents[i]]; // Renumbering keeps the order, so the lists stay sorted
+            }
+        }
+        documentIds.replaceAll((key, document) -> renumbered[document]);
+        documents = live;
+        removed = 0;
+    }
+
+    /**
+     * @return the number of indexed emails (число проиндексированных писем)
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a new query; all conditions of a query must match (новый запрос; все условия запроса должны совпасть)
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    static String inboxKey(String inbox) {
+        return inbox.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    static List<String> extractLinks(String body) {
+        List<String> links = new ArrayList<>();
+        Matcher matcher = LINK.matcher(body);
+        while (matcher.find()) {
+            links.add(matcher.group().replace("&amp;", "&"));
+        }
+        return links;
+    }
+
+    private static String hostOf(String link) {
+        try {
+            String host = URI.create(link).getHost();
+            return host == null ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Запрос к индексу: условия объединяются через И.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Index query: conditions are combined with AND.</code><br>
+     * </p>
+     */
+    public final class Query {
+        private final List<String> terms = new ArrayList<>();
+
+        private Query() {
+        }
+
+        /**
+         * @param address the exact sender address (точный адрес отправителя)
+         */
+        public Query from(String address) {
+            terms.add("from:" + address.toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        /**
+         * @param domain the sender domain, e.g. <code>example.com</code> (домен отправителя)
+         */
+        public Query fromDomain(String domain) {
+            terms.add("domain:" + domain.toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        /**
+         * @param text words that must all appear in the subject, in any order (слова, которые все должны быть в теме, в любом порядке)
+         */
+        public Query subjectContains(String text) {
+            for (String token : tokenize(text)) {
+                terms.add("subject:" + token);
+            }
+            return this;
+        }
+
+        /**
+         * @param alias the recipient alias, i.e. the local part of the address (алиас получателя, локальная часть адреса)
+         */
+        public Query recipient(String alias) {
+            terms.add("to:" + alias.split("@")[0].toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        /**
+         * @param url the exact link found in the body (точная ссылка из тела письма)
+         */
+        public Query link(String url) {
+            terms.add("link:" + url);
+            return this;
+        }
+
+        /**
+         * @param host the host of a link found in the body (хост ссылки из тела письма)
+         */
+        public Query linkHost(String host) {
+            terms.add("host:" + host.toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        /**
+         * <strong>Русский:</strong><br>
+         * <code>Выполняет запрос. Пустой запрос ничего не находит.</code><br>
+         * </p>
+         * <strong>English:</strong><br>
+         * <code>Runs the query. An empty query matches nothing.</code><br>
+         * </p>
+         *
+         * @return the matching emails in indexing order <code>(найденные письма в порядке индексации)</code>
+         */
+        public List<Hit> find() {
+            lock.readLock().lock();
+            try {
+                if (terms.isEmpty()) {
+                    return List.of();
+                }
+                Postings[] lists = new Postings[terms.size()];
+                for (int i = 0; i < lists.length; i++) {
+                    lists[i] = postings.get(terms.get(i));
+                    if (lists[i] == null) {
+                        return List.of();
+                    }
+                }
+                Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size)); // Intersect from the rarest term
+                int[] matches = Arrays.copyOf(lists[0].documents, lists[0].size);
+                int count = matches.length;
+                for (int i = 1; i < lists.length && count > 0; i++) {
+                    count = lists[i].retainIn(matches, count);
+                }
+                List<Hit> hits = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int document = matches[i];
+                    hits.add(new Hit(documentInbox[document], documentMailId[document]));
+                }
+                return hits;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Sorted, duplicate-free list of document numbers (отсортированный список номеров документов без повторов)
+     */
+    private static final class Postings {
+        private final String term;
+        private int[] documents = new int[4];
+        private int size;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        /**
+         * @return false if the document was already listed
+         */
+        boolean add(int document) {
+            if (size > 0 && documents[size - 1] >= document) {
+                int position = Arrays.binarySearch(documents, 0, size, document);
+                if (position >= 0) {
+                    return false;
+                }
+                insert(-position - 1, document);
+                return true;
+            }
+            insert(size, document);
+            return true;
+        }
+
+        /**
+         * @return the remaining number of documents
+         */
+        int remove(int document) {
+            int position = Arrays.binarySearch(documents, 0, size, document);
+            if (position >= 0) {
+                System.arraycopy(documents, position + 1, documents, position, size - position - 1);
+                size--;
+            }
+            return size;
+        }
+
+        private void insert(int position, int document) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            System.arraycopy(documents, position, documents, position + 1, size - position);
+            documents[position] = document;
+            size++;
+        }
+
+        /**
+         * Keeps in <code>candidates[0..count)</code> only the documents present here and returns the new count
+         */
+        int retainIn(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count; i++) {
+                int position = Arrays.binarySearch(documents, from, size, candidates[i]);
+                if (position >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = position + 1;
+                } else {
+                    from = -position - 1;
+                }
+                if (from >= size) {
+                    break;
+                }
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * An indexed email: its inbox address and mail_id (проиндексированное письмо: адрес ящика и mail_id)
+     */
+    public static final class Hit {
+        private final String inbox;
+        private final long mailId;
+
+        Hit(String inbox, long mailId) {
+            this.inbox = inbox;
+            this.mailId = mailId;
+        }
+
+        public String getInbox() {
+            return inbox;
+        }
+
+        public long getMailId() {
+            return mailId;
+        }
+
+        @Override
+        public String toString() {
+            return inbox + "#" + mailId;
+        }
+    }
+}
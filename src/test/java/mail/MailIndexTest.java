@@ -0,0 +1,109 @@
+package mail;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link MailIndex}: пересечение списков, ключ ящика, удаление и уплотнение.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link MailIndex}: postings intersection, the inbox key, removal and compaction.</code><br>
+ * </p>
+ */
+public class MailIndexTest {
+    private static final String INBOX = "box@guerrillamailblock.com";
+
+    @Test
+    public void intersectsAllTerms() {
+        MailIndex index = new MailIndex();
+        index.addListing(INBOX, mail(1, "noreply@github.com", "Verify your email"));
+        index.addListing(INBOX, mail(2, "noreply@github.com", "Weekly digest"));
+        index.addListing(INBOX, mail(3, "team@gitlab.com", "Verify your account"));
+        assertEquals("[" + INBOX + "#1]", index.query().fromDomain("GitHub.com").subjectContains("verify").find().toString());
+        assertEquals("[" + INBOX + "#1, " + INBOX + "#3]", index.query().subjectContains("your VERIFY").find().toString());
+        assertEquals("[" + INBOX + "#2]", index.query().from("noreply@github.com").recipient("box").subjectContains("digest").find().toString());
+        assertTrue(index.query().fromDomain("gitlab.com").subjectContains("digest").find().isEmpty());
+    }
+
+    @Test
+    public void findsNothingForEmptyOrUnknownQueries() {
+        MailIndex index = new MailIndex();
+        index.addListing(INBOX, mail(1, "a@b.com", "Hello"));
+        assertTrue(index.query().find().isEmpty());
+        assertTrue(index.query().subjectContains(" ,. ").find().isEmpty());
+        assertTrue(index.query().subjectContains("hello").fromDomain("unknown.org").find().isEmpty());
+    }
+
+    @Test
+    public void mergesListingAndFetchedEmailIntoOneDocument() {
+        MailIndex index = new MailIndex();
+        index.addListing(" Box@GuerrillaMailBlock.com ", mail(7, "a@b.com", "Confirm"));
+        JSONObject fetched = mail(7, "a@b.com", "Confirm")
+                .put("mail_recipient", "alias@guerrillamailblock.com")
+                .put("mail_body", "<a href=\"https://Example.com/confirm?x=1&amp;y=2\">link</a>");
+        index.addFetched(INBOX, fetched);
+        assertEquals(1, index.size());
+        List<MailIndex.Hit> hits = index.query().linkHost("example.com").subjectContains("confirm").find();
+        assertEquals(1, hits.size());
+        assertEquals(INBOX, hits.get(0).getInbox());
+        assertEquals(7, hits.get(0).getMailId());
+        assertEquals(1, index.query().link("https://Example.com/confirm?x=1&y=2").find().size());
+        assertEquals(1, index.query().recipient("alias").find().size());
+    }
+
+    @Test
+    public void removesEmailsAndInboxes() {
+        MailIndex index = new MailIndex();
+        index.addListing(INBOX, mail(1, "a@b.com", "One"));
+        index.addListing(INBOX, mail(2, "a@b.com", "Two"));
+        index.addListing("other@guerrillamailblock.com", mail(1, "a@b.com", "One"));
+        assertTrue(index.remove(INBOX.toUpperCase(), 1));
+        assertFalse(index.remove(INBOX, 1));
+        assertEquals("[other@guerrillamailblock.com#1]", index.query().subjectContains("one").find().toString());
+        assertEquals(2, index.size());
+        assertEquals(1, index.removeInbox(INBOX));
+        assertEquals(0, index.removeInbox(INBOX));
+        assertEquals(1, index.size());
+        assertTrue(index.query().subjectContains("two").find().isEmpty());
+        index.addListing(INBOX, mail(2, "a@b.com", "Two")); // Can be indexed again after removal
+        assertEquals("[" + INBOX + "#2]", index.query().subjectContains("two").find().toString());
+    }
+
+    @Test
+    public void keepsResultsAfterCompaction() {
+        MailIndex index = new MailIndex();
+        int total = 3_000;
+        for (int id = 1; id <= total; id++) {
+            index.addListing(INBOX, mail(id, id % 3 == 0 ? "a@even.com" : "a@odd.com", "Message " + (id % 10)));
+        }
+        for (int id = 1; id <= total; id++) {
+            if (id % 5 != 0) {
+                assertTrue(index.remove(INBOX, id)); // Removes 2400 documents and triggers compaction
+            }
+        }
+        assertEquals(total / 5, index.size());
+        List<Long> expected = new ArrayList<>();
+        for (long id = 15; id <= total; id += 30) { // Kept, from even.com and ending in 5
+            expected.add(id);
+        }
+        List<Long> actual = new ArrayList<>();
+        for (MailIndex.Hit hit : index.query().fromDomain("even.com").subjectContains("message 5").find()) {
+            actual.add(hit.getMailId());
+        }
+        assertEquals(expected, actual);
+        index.addListing(INBOX, mail(total + 15, "a@even.com", "Message 5"));
+        assertEquals(expected.size() + 1, index.query().fromDomain("even.com").subjectContains("5").find().size());
+    }
+
+    private static JSONObject mail(long id, String from, String subject) {
+        return new JSONObject().put("mail_id", id).put("mail_from", from).put("mail_subject", subject);
+    }
+}
@@ -0,0 +1,34 @@
+package mail;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Событие JFR для одной попытки проверки почты: запрос списка и обработка всех найденных писем, без паузы.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>JFR event for one email check attempt: the listing request and handling of every email found, without the pause.</code><br>
+ * </p>
+ */
+@Name("mail.PollCycle")
+@Label("Poll Cycle")
+@Category({"Guerrilla Mail", "Inbox"})
+@Description("One check_email attempt including the fetches of the listed emails, excluding the pause after it")
+@StackTrace(false)
+class PollCycleEvent extends Event {
+    @Label("Attempt")
+    int attempt;
+
+    @Label("Emails")
+    @Description("Emails in the listing")
+    int emails;
+
+    @Label("Stopped")
+    @Description("An email from the stop domain ended the check")
+    boolean stopped;
+}
@@ -0,0 +1,554 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Транспорт-декоратор, который записывает реальные обмены с API в файл и воспроизводит их без сети.</code><br>
+ * Файл записи (cassette) содержит по одной JSON-строке на обмен: функцию <code>f</code>, URL, код ответа, заголовки,
+ * тело в Base64 (как пришло, в том числе сжатым) и длительность. При записи тело читается целиком при подключении.
+ * Каждый обмен помечается PHPSESSID запроса. При воспроизведении ответ ищется среди обменов того же сеанса: сначала
+ * с тем же запросом без <code>sid_token</code>, затем первый по порядку с той же функцией <code>f</code> (например,
+ * <code>set_email_user</code> со случайным именем). Так фоновые сеансы (пул ящиков, очистка) не получают ответы
+ * друг друга, а параллельные загрузки писем не зависят от порядка. Запросы без сеанса (первый запрос нового сеанса)
+ * сопоставляются только по функции, поэтому каждый новый сеанс получает целиком один записанный сеанс.
+ * Записанные задержки и паузы {@link GuerrillaMailApi} умножаются на <code>timeScale</code>: 0 убирает их полностью.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Transport decorator that records real API exchanges to a file and replays them without the network.</code><br>
+ * The cassette holds one JSON line per exchange: the function <code>f</code>, URL, response code, headers,
+ * the body in Base64 (as received, compressed included) and the duration. While recording, the body is read fully on connect.
+ * Every exchange is tagged with the PHPSESSID of its request. On replay the response is looked up among the exchanges of
+ * the same session: first the same query without <code>sid_token</code>, then the earliest one with the same function
+ * <code>f</code> (e.g. <code>set_email_user</code> with a random name). Background sessions (the inbox pool, cleanup) thus
+ * never get each other's responses, and parallel email fetches do not depend on order. Requests without a session (the
+ * first request of a new session) are matched by function only, so each new session follows one recorded session throughout.
+ * Recorded latencies and {@link GuerrillaMailApi} pauses are multiplied by <code>timeScale</code>: 0 removes them.<br>
+ * </p>
+ * <p>
+ * Selected with <code>-Dguerrillamail.transport=record|replay</code>, <code>-Dguerrillamail.cassette=&lt;file&gt;</code>
+ * and <code>-Dguerrillamail.timeScale=&lt;factor&gt;</code>.
+ */
+public class RecordReplayTransport implements Transport {
+    public static final String MODE_PROPERTY = "guerrillamail.transport";
+    public static final String CASSETTE_PROPERTY = "guerrillamail.cassette";
+    public static final String TIME_SCALE_PROPERTY = "guerrillamail.timeScale";
+    private static final String DEFAULT_CASSETTE = "build/cassettes/guerrillamail.jsonl";
+    private static final String SESSION = "session";
+    private static final String KEY = "key"; // Computed on load, not stored
+
+    public enum Mode {RECORD, REPLAY}
+
+    private final Mode mode;
+    private final Transport delegate;
+    private final double timeScale;
+    private final Writer writer;
+    private final Map<String, Deque<JSONObject>> recorded = new HashMap<>();
+
+    private RecordReplayTransport(Mode mode, Transport delegate, Path cassette, double timeScale) throws IOException {
+        this.mode = mode;
+        this.delegate = delegate;
+        this.timeScale = timeScale;
+        if (mode == Mode.RECORD) {
+            if (cassette.getParent() != null) {
+                Files.createDirectories(cassette.getParent());
+            }
+            this.writer = Files.newBufferedWriter(cassette, StandardCharsets.UTF_8);
+        } else {
+            this.writer = null;
+            for (String line : Files.readAllLines(cassette, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    JSONObject exchange = new JSONObject(line);
+                    exchange.put(KEY, requestKey(new URL(exchange.getString("url")).getQuery()));
+                    recorded.computeIfAbsent(exchange.getString("f"), f -> new ArrayDeque<>()).add(exchange);
+                }
+            }
+        }
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Создаёт транспорт, записывающий обмены через <code>delegate</code> в файл.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Creates a transport that records exchanges made through <code>delegate</code> to a file.</code><br>
+     * </p>
+     *
+     * @param delegate the transport that performs the real calls (транспорт, выполняющий реальные вызовы)
+     * @param cassette the file to write, replaced if it exists (файл для записи, заменяется если существует)
+     * @return the recording transport <code>(записывающий транспорт)</code>
+     * @throws IOException if the file could not be created (если файл не удалось создать)
+     */
+    public static RecordReplayTransport record(Transport delegate, Path cassette) throws IOException {
+        return new RecordReplayTransport(Mode.RECORD, delegate, cassette, 1.0);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Создаёт транспорт, воспроизводящий обмены из файла.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Creates a transport that replays exchanges from a file.</code><br>
+     * </p>
+     *
+     * @param cassette  the recorded file (записанный файл)
+     * @param timeScale the factor applied to recorded latencies and pauses, 0 removes them (множитель задержек и пауз, 0 убирает их)
+     * @return the replaying transport <code>(воспроизводящий транспорт)</code>
+     * @throws IOException if the file could not be read (если файл не удалось прочитать)
+     */
+    public static RecordReplayTransport replay(Path cassette, double timeScale) throws IOException {
+        return new RecordReplayTransport(Mode.REPLAY, null, cassette, timeScale);
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Выбирает транспорт по системным свойствам; без них возвращает <code>live</code>.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Selects the transport from system properties; returns <code>live</code> without them.</code><br>
+     * </p>
+     *
+     * @param live the network transport (сетевой транспорт)
+     * @return the selected transport <code>(выбранный транспорт)</code>
+     */
+    static Transport fromSystemProperties(Transport live) {
+        String mode = System.getProperty(MODE_PROPERTY, "live");
+        Path cassette = Paths.get(System.getProperty(CASSETTE_PROPERTY, DEFAULT_CASSETTE));
+        try {
+            switch (mode.toLowerCase(Locale.ROOT)) {
+                case "record":
+                    return record(live, cassette);
+                case "replay":
+                    return replay(cassette, Double.parseDouble(System.getProperty(TIME_SCALE_PROPERTY, "0")));
+                case "live":
+                    return live;
+                default:
+                    throw new IllegalArgumentException("Unknown " + MODE_PROPERTY + ": " + mode);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open cassette " + cassette, e);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        String function = functionOf(url);
+        if (mode == Mode.RECORD) {
+            return new RecordingConnection(url, function, delegate.open(url));
+        }
+        return new ReplayConnection(url, function);
+    }
+
+    private JSONObject nextExchange(String function, URL url, String session) throws IOException {
+        JSONObject exchange;
+        synchronized (recorded) {
+            Deque<JSONObject> queue = recorded.get(function);
+            exchange = queue == null ? null : takeMatching(queue, session, requestKey(url.getQuery()));
+        }
+        if (exchange == null) {
+            throw new IOException("No recorded exchange left for f=" + function + " in session '" + session + "' (" + url + ")");
+        }
+        return exchange;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (mode == Mode.RECORD) {
+            delegate.sleep(millis);
+            return;
+        }
+        long scaled = (long) (millis * timeScale);
+        if (scaled > 0) {
+            Thread.sleep(scaled);
+        }
+    }
+
+    /**
+     * Takes the exchange of the same session with the same request, else the session's earliest one
+     * (берёт обмен того же сеанса с тем же запросом, иначе самый ранний обмен сеанса)
+     */
+    private static JSONObject takeMatching(Deque<JSONObject> queue, String session, String key) {
+        JSONObject earliest = null;
+        for (Iterator<JSONObject> it = queue.iterator(); it.hasNext(); ) {
+            JSONObject exchange = it.next();
+            if (!exchange.optString(SESSION, session).equals(session)) { // Cassettes without sessions match any
+                continue;
+            }
+            if (key.equals(exchange.optString(KEY))) {
+                it.remove();
+                return exchange;
+            }
+            if (earliest == null) {
+                earliest = exchange;
+            }
+        }
+        if (earliest != null) {
+            queue.remove(earliest);
+        }
+        return earliest;
+    }
+
+    /**
+     * The query without sid_token, which rotates on every response (запрос без sid_token, который меняется с каждым ответом)
+     */
+    private static String requestKey(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(query.length());
+        for (String param : query.split("&")) {
+            if (!param.startsWith("sid_token=")) {
+                key.append(key.length() == 0 ? "" : "&").append(param);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the PHPSESSID sent with the request, or an empty string for a new session (PHPSESSID запроса или пустая строка)
+     */
+    private static String sessionOf(String cookie) {
+        if (cookie != null) {
+            for (String part : cookie.split(";")) {
+                String trimmed = part.trim();
+                if (trimmed.startsWith("PHPSESSID=")) {
+                    return trimmed.substring("PHPSESSID=".length());
+                }
+            }
+        }
+        return "";
+    }
+
+    private static String functionOf(URL url) {
+        String function = parameterOf(url.getQuery(), "f");
+        return function != null ? function : url.getPath();
+    }
+
+    private static String parameterOf(String query, String name) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith(name + "=")) {
+                    return param.substring(name.length() + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void write(JSONObject exchange) {
+        synchronized (writer) {
+            try {
+                writer.write(exchange.toString());
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write cassette", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the real response on connect, writes the exchange and serves the body from memory
+     * (читает реальный ответ при подключении, записывает обмен и выдаёт тело из памяти)
+     */
+    private class RecordingConnection extends HttpURLConnection {
+        private final String function;
+        private final HttpURLConnection real;
+        private byte[] body;
+        private IOException failure;
+        private String session;
+
+        RecordingConnection(URL url, String function, HttpURLConnection real) {
+            super(url);
+            this.function = function;
+            this.real = real;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) {
+                return;
+            }
+            session = sessionOf(real.getRequestProperty("Cookie")); // Request properties are unreadable once connected
+            long startNanos = System.nanoTime();
+            real.connect();
+            try (InputStream in = real.getInputStream()) {
+                body = in.readAllBytes();
+            } catch (IOException e) {
+                failure = e;
+                InputStream error = real.getErrorStream();
+                body = error == null ? new byte[0] : error.readAllBytes();
+            }
+            connected = true;
+            save((System.nanoTime() - startNanos) / 1_000_000);
+        }
+
+        private void save(long millis) throws IOException {
+            JSONArray headers = new JSONArray();
+            for (int i = 0; real.getHeaderField(i) != null; i++) {
+                String key = real.getHeaderFieldKey(i);
+                headers.put(new JSONArray().put(key == null ? JSONObject.NULL : key).put(real.getHeaderField(i)));
+            }
+            JSONObject exchange = new JSONObject();
+            exchange.put("f", function);
+            exchange.put("url", url.toString());
+            exchange.put(SESSION, session);
+            exchange.put("status", real.getResponseCode());
+            exchange.put("message", real.getResponseMessage());
+            exchange.put("headers", headers);
+            exchange.put("body", Base64.getEncoder().encodeToString(body));
+            exchange.put("ms", millis);
+            write(exchange);
+        }
+
+        private void connectQuietly() {
+            try {
+                connect();
+            } catch (IOException e) {
+                // Header getters cannot throw; the failure surfaces from getInputStream or getResponseCode
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (failure != null) {
+                throw failure;
+            }
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return failure != null ? new ByteArrayInputStream(body) : null;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            connect();
+            return real.getResponseCode();
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            connect();
+            return real.getResponseMessage();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            connectQuietly();
+            return real.getHeaderField(name);
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            connectQuietly();
+            return real.getHeaderField(n);
+        }
+
+        @Override
+        public String getHeaderFieldKey(int n) {
+            connectQuietly();
+            return real.getHeaderFieldKey(n);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            connectQuietly();
+            return real.getHeaderFields();
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            real.setRequestProperty(key, value);
+        }
+
+        @Override
+        public void addRequestProperty(String key, String value) {
+            real.addRequestProperty(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return real.getRequestProperty(key);
+        }
+
+        @Override
+        public Map<String, List<String>> getRequestProperties() {
+            return real.getRequestProperties();
+        }
+
+        @Override
+        public void setRequestMethod(String method) throws ProtocolException {
+            real.setRequestMethod(method);
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return real.getRequestMethod();
+        }
+
+        @Override
+        public void setInstanceFollowRedirects(boolean followRedirects) {
+            real.setInstanceFollowRedirects(followRedirects);
+        }
+
+        @Override
+        public boolean getInstanceFollowRedirects() {
+            return real.getInstanceFollowRedirects();
+        }
+
+        @Override
+        public void disconnect() {
+            real.disconnect();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return real.usingProxy();
+        }
+    }
+
+    /**
+     * Serves a recorded exchange as if it came from the server (выдаёт записанный обмен как ответ сервера)
+     */
+    private class ReplayConnection extends HttpURLConnection {
+        private final String function;
+        private final List<String[]> headers = new ArrayList<>();
+        private JSONObject exchange;
+
+        ReplayConnection(URL url, String function) {
+            super(url);
+            this.function = function;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) {
+                return;
+            }
+            // Taken on connect, like a recorded exchange, so connections that are only built for logging consume nothing
+            exchange = nextExchange(function, url, sessionOf(getRequestProperty("Cookie")));
+            connected = true;
+            responseCode = exchange.getInt("status");
+            responseMessage = exchange.optString("message", null);
+            JSONArray recordedHeaders = exchange.getJSONArray("headers");
+            for (int i = 0; i < recordedHeaders.length(); i++) {
+                JSONArray header = recordedHeaders.getJSONArray(i);
+                headers.add(new String[]{header.isNull(0) ? null : header.getString(0), header.getString(1)});
+            }
+            try {
+                RecordReplayTransport.this.sleep(exchange.optLong("ms", 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying " + url, e);
+            }
+        }
+
+        private void connectQuietly() {
+            try {
+                connect();
+            } catch (IOException e) {
+                // Header getters cannot throw; the failure surfaces from getInputStream or getResponseCode
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (responseCode >= 400) {
+                throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+            }
+            return new ByteArrayInputStream(Base64.getDecoder().decode(exchange.getString("body")));
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return connected && responseCode >= 400 ? new ByteArrayInputStream(Base64.getDecoder().decode(exchange.getString("body"))) : null;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            connect();
+            return responseCode;
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            connect();
+            return responseMessage;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            connectQuietly();
+            String value = null;
+            for (String[] header : headers) {
+                if (header[0] != null && header[0].equalsIgnoreCase(name)) {
+                    value = header[1];
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            connectQuietly();
+            return n < headers.size() ? headers.get(n)[1] : null;
+        }
+
+        @Override
+        public String getHeaderFieldKey(int n) {
+            connectQuietly();
+            return n < headers.size() ? headers.get(n)[0] : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            connectQuietly();
+            Map<String, List<String>> fields = new LinkedHashMap<>();
+            for (String[] header : headers) {
+                fields.computeIfAbsent(header[0], key -> new ArrayList<>()).add(header[1]);
+            }
+            return Collections.unmodifiableMap(fields);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link RecordReplayTransport}: запись через подменный транспорт и воспроизведение кассеты.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link RecordReplayTransport}: recording through a fake transport and replaying a cassette.</code><br>
+ * </p>
+ */
+public class RecordReplayTransportTest {
+    private static final String API_URL = "https://api.guerrillamail.com/ajax.php";
+
+    @Test
+    public void replaysBodyStatusAndHeaders() throws IOException {
+        Path cassette = cassette(exchange("get_email_address", API_URL + "?f=get_email_address&lang=en", 200,
+                "{\"email_addr\":\"a@guerrillamailblock.com\"}", 5_000, "Set-Cookie", "PHPSESSID=abc; path=/"));
+        try {
+            RecordReplayTransport transport = RecordReplayTransport.replay(cassette, 0);
+            assertEquals(RecordReplayTransport.Mode.REPLAY, transport.getMode());
+            long startNanos = System.nanoTime();
+            HttpURLConnection connection = transport.open(new URL(API_URL + "?f=get_email_address&lang=en"));
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("PHPSESSID=abc; path=/", connection.getHeaderField("set-cookie"));
+            assertEquals("HTTP/1.1 200 OK", connection.getHeaderField(0));
+            assertNull(connection.getHeaderFieldKey(0));
+            assertEquals("{\"email_addr\":\"a@guerrillamailblock.com\"}", read(connection.getInputStream()));
+            assertNull(connection.getErrorStream());
+            assertTrue(System.nanoTime() - startNanos < 2_000_000_000L, "recorded latency must be scaled to 0");
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    @Test
+    public void matchesFetchesByEmailIdInAnyOrder() throws IOException {
+        Path cassette = cassette(
+                exchange("fetch_email", API_URL + "?f=fetch_email&email_id=1", 200, "one", 0),
+                exchange("fetch_email", API_URL + "?f=fetch_email&email_id=2", 200, "two", 0),
+                exchange("fetch_email", API_URL + "?f=fetch_email&email_id=3", 200, "three", 0));
+        try {
+            RecordReplayTransport transport = RecordReplayTransport.replay(cassette, 0);
+            assertEquals("three", read(transport.open(new URL(API_URL + "?f=fetch_email&email_id=3")).getInputStream()));
+            assertEquals("one", read(transport.open(new URL(API_URL + "?f=fetch_email&email_id=1")).getInputStream()));
+            assertEquals("two", read(transport.open(new URL(API_URL + "?f=fetch_email&email_id=2")).getInputStream()));
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    @Test
+    public void replaysEachFunctionInRecordedOrder() throws IOException {
+        Path cassette = cassette(
+                exchange("check_email", API_URL + "?f=check_email&seq=0", 200, "first", 0),
+                exchange("get_email_list", API_URL + "?f=get_email_list&offset=0", 200, "list", 0),
+                exchange("check_email", API_URL + "?f=check_email&seq=0", 200, "second", 0));
+        try {
+            RecordReplayTransport transport = RecordReplayTransport.replay(cassette, 0);
+            assertEquals("first", read(transport.open(new URL(API_URL + "?f=check_email&seq=0")).getInputStream()));
+            assertEquals("second", read(transport.open(new URL(API_URL + "?f=check_email&seq=0")).getInputStream()));
+            assertEquals("list", read(transport.open(new URL(API_URL + "?f=get_email_list&offset=0")).getInputStream()));
+            HttpURLConnection exhausted = transport.open(new URL(API_URL + "?f=check_email&seq=0"));
+            assertNull(exhausted.getHeaderField("Content-Type")); // Header getters swallow the failure
+            assertThrows(IOException.class, exhausted::getInputStream);
+            assertThrows(IOException.class, () -> transport.open(new URL(API_URL + "?f=forget_me")).getResponseCode());
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    @Test
+    public void keepsInterleavedSessionsApart() throws IOException {
+        Path cassette = cassette(
+                exchange("set_email_user", API_URL + "?f=set_email_user&email_user=pool1", 200, "pool", 0).put("session", ""),
+                exchange("check_email", API_URL + "?f=check_email&seq=0&sid_token=p1", 200, "pool inbox", 0).put("session", "pool"),
+                exchange("set_email_user", API_URL + "?f=set_email_user&email_user=main1", 200, "main", 0).put("session", "main"),
+                exchange("check_email", API_URL + "?f=check_email&seq=0&sid_token=m1", 200, "main inbox", 0).put("session", "main"),
+                exchange("check_email", API_URL + "?f=check_email&seq=5&sid_token=m2", 200, "main seq 5", 0).put("session", "main"));
+        try {
+            RecordReplayTransport transport = RecordReplayTransport.replay(cassette, 0);
+            // The main session asks first, with other random names and sid_tokens than recorded
+            assertEquals("main seq 5", read(open(transport, "?f=check_email&seq=5&sid_token=x", "main").getInputStream()));
+            assertEquals("main", read(open(transport, "?f=set_email_user&email_user=main2", "main").getInputStream()));
+            assertEquals("main inbox", read(open(transport, "?f=check_email&seq=0&sid_token=y", "main").getInputStream()));
+            assertEquals("pool inbox", read(open(transport, "?f=check_email&seq=0&sid_token=z", "pool").getInputStream()));
+            assertEquals("pool", read(open(transport, "?f=set_email_user&email_user=pool2", null).getInputStream()));
+            assertThrows(IOException.class, () -> open(transport, "?f=check_email&seq=0", "main").getInputStream());
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    @Test
+    public void failsOnRecordedErrorStatus() throws IOException {
+        Path cassette = cassette(exchange("set_email_user", API_URL + "?f=set_email_user", 503, "busy", 0));
+        try {
+            HttpURLConnection connection = RecordReplayTransport.replay(cassette, 0).open(new URL(API_URL + "?f=set_email_user"));
+            assertEquals(503, connection.getResponseCode());
+            assertThrows(IOException.class, connection::getInputStream);
+            assertEquals("busy", read(connection.getErrorStream()));
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    @Test
+    public void replaysWhatWasRecorded() throws IOException {
+        Path cassette = Files.createTempFile("guerrillamail-cassette-", ".jsonl");
+        try {
+            List<URL> opened = new ArrayList<>();
+            Transport fake = url -> {
+                opened.add(url);
+                boolean ok = !url.getQuery().contains("del_email");
+                return new FakeConnection(url, ok ? 200 : 500, ok ? "{\"ok\":true}" : "error");
+            };
+            RecordReplayTransport recorder = RecordReplayTransport.record(fake, cassette);
+            assertEquals("{\"ok\":true}", read(open(recorder, "?f=check_email&seq=0&sid_token=a", "abc").getInputStream()));
+            HttpURLConnection failed = recorder.open(new URL(API_URL + "?f=del_email&email_ids%5B%5D=1"));
+            assertThrows(IOException.class, failed::getInputStream);
+            assertEquals("error", read(failed.getErrorStream()));
+            assertEquals(2, opened.size());
+
+            RecordReplayTransport player = RecordReplayTransport.replay(cassette, 0);
+            assertThrows(IOException.class, () -> open(player, "?f=check_email&seq=0", "other").getResponseCode());
+            HttpURLConnection replayed = open(player, "?f=check_email&seq=0&sid_token=b", "abc");
+            assertEquals(200, replayed.getResponseCode());
+            assertEquals("application/json", replayed.getHeaderField("Content-Type"));
+            assertEquals("{\"ok\":true}", read(replayed.getInputStream()));
+            HttpURLConnection replayedFailure = player.open(new URL(API_URL + "?f=del_email&email_ids%5B%5D=1"));
+            assertEquals(500, replayedFailure.getResponseCode());
+            assertThrows(IOException.class, replayedFailure::getInputStream);
+            assertEquals("error", read(replayedFailure.getErrorStream()));
+        } finally {
+            Files.deleteIfExists(cassette);
+        }
+    }
+
+    private static HttpURLConnection open(Transport transport, String query, String phpSessId) throws IOException {
+        HttpURLConnection connection = transport.open(new URL(API_URL + query));
+        if (phpSessId != null) {
+            connection.setRequestProperty("Cookie", "PHPSESSID=" + phpSessId);
+        }
+        return connection;
+    }
+
+    /**
+     * An exchange without a session, as in cassettes recorded before sessions were stored (обмен без сеанса)
+     */
+    private static JSONObject exchange(String function, String url, int status, String body, long millis, String... header) {
+        JSONArray headers = new JSONArray().put(new JSONArray().put(JSONObject.NULL).put("HTTP/1.1 " + status + " OK"));
+        for (int i = 0; i + 1 < header.length; i += 2) {
+            headers.put(new JSONArray().put(header[i]).put(header[i + 1]));
+        }
+        return new JSONObject()
+                .put("f", function)
+                .put("url", url)
+                .put("status", status)
+                .put("message", "OK")
+                .put("headers", headers)
+                .put("body", Base64.getEncoder().encodeToString(body.getBytes(StandardCharsets.UTF_8)))
+                .put("ms", millis);
+    }
+
+    private static Path cassette(JSONObject... exchanges) throws IOException {
+        Path cassette = Files.createTempFile("guerrillamail-cassette-", ".jsonl");
+        List<String> lines = new ArrayList<>();
+        for (JSONObject exchange : exchanges) {
+            lines.add(exchange.toString());
+        }
+        Files.write(cassette, lines, StandardCharsets.UTF_8);
+        return cassette;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A canned server response (заготовленный ответ сервера)
+     */
+    private static final class FakeConnection extends HttpURLConnection {
+        private final byte[] body;
+        private final String[][] headers;
+
+        FakeConnection(URL url, int status, String body) {
+            super(url);
+            this.responseCode = status;
+            this.responseMessage = status < 400 ? "OK" : "Internal Server Error";
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+            this.headers = new String[][]{{null, "HTTP/1.1 " + status + " " + responseMessage}, {"Content-Type", "application/json"}};
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (responseCode >= 400) {
+                throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+            }
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return responseCode >= 400 ? new ByteArrayInputStream(body) : null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        @Override
+        public String getResponseMessage() {
+            return responseMessage;
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            return n < headers.length ? headers[n][1] : null;
+        }
+
+        @Override
+        public String getHeaderFieldKey(int n) {
+            return n < headers.length ? headers[n][0] : null;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
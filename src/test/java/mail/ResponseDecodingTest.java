@@ -0,0 +1,139 @@
+package mail;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты чтения ответов: gzip, deflate с обёрткой zlib и без неё, кодировка из Content-Type.</code><br>
+ * Тесты подменяют общий транспорт {@link GuerrillaMailApi}, поэтому выполняются изолированно.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of response reading: gzip, deflate with and without the zlib wrapper, charset from Content-Type.</code><br>
+ * The tests replace the shared {@link GuerrillaMailApi} transport, so they run in isolation.<br>
+ * </p>
+ */
+@Isolated
+public class ResponseDecodingTest {
+    private static final String SUBJECT = "Привет, Grüße — ok";
+
+    private Transport previousTransport;
+
+    @BeforeEach
+    public void saveTransport() {
+        previousTransport = GuerrillaMailApi.getTransport();
+    }
+
+    @AfterEach
+    public void restoreTransport() {
+        GuerrillaMailApi.setTransport(previousTransport);
+    }
+
+    @Test
+    public void decodesGzip() throws Exception {
+        byte[] json = email(SUBJECT).getBytes(StandardCharsets.UTF_8);
+        assertEquals(SUBJECT, subject(call(gzip(json), "application/json; charset=utf-8", "gzip")));
+        assertEquals(SUBJECT, subject(call(gzip(json), "application/json", "X-GZIP"))); // Case and the x- alias
+    }
+
+    @Test
+    public void decodesZlibWrappedDeflate() throws Exception {
+        byte[] json = email(SUBJECT).getBytes(StandardCharsets.UTF_8);
+        assertEquals(SUBJECT, subject(call(deflate(json, false), "application/json", "deflate")));
+    }
+
+    @Test
+    public void decodesRawDeflate() throws Exception {
+        byte[] json = email(SUBJECT).getBytes(StandardCharsets.UTF_8);
+        assertEquals(SUBJECT, subject(call(deflate(json, true), "application/json", " deflate ")));
+    }
+
+    @Test
+    public void decodesDeclaredCharset() throws Exception {
+        String cyrillic = "Привет, мир";
+        byte[] windows1251 = email(cyrillic).getBytes(Charset.forName("windows-1251"));
+        assertEquals(cyrillic, subject(call(windows1251, "application/json; charset=windows-1251", null)));
+
+        String latin = "Grüße aus Köln";
+        byte[] latin1 = email(latin).getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(latin, subject(call(latin1, "application/json;Charset=\"ISO-8859-1\"", null)));
+        // Compressed and in a legacy charset at once: decompressed first, then decoded
+        assertEquals(cyrillic, subject(call(gzip(windows1251), "application/json; charset=windows-1251", "gzip")));
+    }
+
+    @Test
+    public void fallsBackToUtf8() throws Exception {
+        byte[] json = email(SUBJECT).getBytes(StandardCharsets.UTF_8);
+        assertEquals(SUBJECT, subject(call(json, "application/json", null)));
+        assertEquals(SUBJECT, subject(call(json, "application/json; charset=no-such-charset", null)));
+        assertEquals(SUBJECT, subject(call(json, null, null)));
+    }
+
+    @Test
+    public void decodesPlainTextResponses() throws Exception {
+        // forget_me answers a bare "true", read as a string rather than as JSON
+        GuerrillaMailApi.setTransport(url -> new StubConnection(url, reply(gzip("true".getBytes(StandardCharsets.UTF_8)), "text/html", "gzip")));
+        assertTrue(GuerrillaMailApi.forgetMe(new GuerrillaSession("plain@guerrillamailblock.com", "sid", "php")));
+    }
+
+    private static JSONObject call(byte[] body, String contentType, String contentEncoding) throws Exception {
+        GuerrillaMailApi.setTransport(url -> new StubConnection(url, reply(body, contentType, contentEncoding)));
+        return GuerrillaMailApi.callSession(new GuerrillaSession("decode@guerrillamailblock.com", "sid", "php"), ApiRequest.fetchEmail(1));
+    }
+
+    private static StubConnection.Reply reply(byte[] body, String contentType, String contentEncoding) {
+        StubConnection.Reply reply = new StubConnection.Reply(200, body);
+        if (contentType != null) {
+            reply.header("Content-Type", contentType);
+        }
+        if (contentEncoding != null) {
+            reply.header("Content-Encoding", contentEncoding);
+        }
+        return reply;
+    }
+
+    private static String email(String subject) {
+        return new JSONObject().put("mail_id", 1).put("mail_subject", subject).put("mail_body", subject.repeat(50)).toString();
+    }
+
+    private static String subject(JSONObject email) {
+        assertEquals(email.getString("mail_subject").repeat(50), email.getString("mail_body"));
+        return email.getString("mail_subject");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param raw true for bare deflate data as some servers send it, false for the zlib wrapper of RFC 1950
+     */
+    private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(data);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,34 @@
+package mail;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Событие JFR для создания, обновления или восстановления сеанса.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>JFR event for a session being created, refreshed or restored.</code><br>
+ * </p>
+ */
+@Name("mail.Session")
+@Label("Session")
+@Category({"Guerrilla Mail", "Session"})
+@Description("A session was created with set_email_user, got a new sid_token, or was restored from a session store")
+@StackTrace(false)
+class SessionEvent extends Event {
+    static final String CREATE = "create";
+    static final String REFRESH = "refresh";
+    static final String RESTORE = "restore";
+
+    @Label("Action")
+    @Description("create, refresh or restore")
+    String action;
+
+    @Label("Email Address")
+    String emailAddress;
+}
@@ -0,0 +1,99 @@
+package mail;
+
+import org.json.JSONObject;
+
+import java.io.Serializable;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Неизменяемый снимок сеанса, который можно передать другому процессу или сохранить между запусками.</code><br>
+ * Содержит адрес, sid_token, куки PHPSESSID и время истечения. Курсор seq не сохраняется: он сдвигается с каждым
+ * check_email, и сохранённая копия устаревала бы, поэтому восстановленный сеанс начинает с seq 0. Сериализуется как
+ * через {@link Serializable}, так и в компактный JSON ({@link #toJson()}).<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Immutable session snapshot that can be handed to another process or kept across restarts.</code><br>
+ * It holds the address, sid_token, PHPSESSID cookie and expiry time. The seq cursor is not kept: it moves with every
+ * check_email and a stored copy would go stale, so a restored session starts from seq 0. It serializes both through
+ * {@link Serializable} and to compact JSON ({@link #toJson()}).<br>
+ * </p>
+ */
+public final class SessionSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String emailAddress;
+    private final String sidToken;
+    private final String phpSessId;
+    private final long expiresAt;
+
+    public SessionSnapshot(String emailAddress, String sidToken, String phpSessId, long expiresAt) {
+        this.emailAddress = emailAddress;
+        this.sidToken = sidToken;
+        this.phpSessId = phpSessId;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @param session the session to capture (сеанс для снимка)
+     * @return the snapshot of its current state <code>(снимок его текущего состояния)</code>
+     */
+    public static SessionSnapshot of(GuerrillaSession session) {
+        return new SessionSnapshot(session.getEmailAddress(), session.getSidToken(), session.getPhpSessId(),
+                session.getExpiresAt());
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Восстанавливает сеанс из снимка без обращения к API.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Restores a session from the snapshot without calling the API.</code><br>
+     * </p>
+     *
+     * @return the restored session <code>(восстановленный сеанс)</code>
+     */
+    public GuerrillaSession restore() {
+        GuerrillaSession session = new GuerrillaSession(emailAddress, sidToken, phpSessId);
+        session.setExpiresAt(expiresAt);
+        return session;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("email_addr", emailAddress);
+        json.put("sid_token", sidToken);
+        json.put("phpsessid", phpSessId);
+        json.put("expires_at", expiresAt);
+        return json;
+    }
+
+    public static SessionSnapshot fromJson(JSONObject json) {
+        return new SessionSnapshot(json.getString("email_addr"), json.getString("sid_token"),
+                json.has("phpsessid") ? json.getString("phpsessid") : null, json.getLong("expires_at"));
+    }
+
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+    public String getSidToken() {
+        return sidToken;
+    }
+
+    public String getPhpSessId() {
+        return phpSessId;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+
+    @Override
+    public String toString() {
+        return emailAddress;
+    }
+}
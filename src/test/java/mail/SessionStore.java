@@ -0,0 +1,66 @@
+package mail;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Общее хранилище снимков сеансов, через которое процессы (например, воркеры Gradle) используют одни и те же сеансы.</code><br>
+ * Снимки хранятся по адресу электронной почты; истёкшие снимки считаются отсутствующими.
+ * Реализация по умолчанию — {@link FileSessionStore}.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Shared store of session snapshots through which processes (for example Gradle workers) reuse the same sessions.</code><br>
+ * Snapshots are keyed by email address; expired snapshots are treated as absent.
+ * The default implementation is {@link FileSessionStore}.<br>
+ * </p>
+ */
+public interface SessionStore {
+
+    /**
+     * @param emailAddress the address to look up (адрес для поиска)
+     * @return the stored snapshot if present and not expired <code>(сохранённый снимок, если он есть и не истёк)</code>
+     * @throws IOException if the store could not be read (если хранилище не удалось прочитать)
+     */
+    Optional<SessionSnapshot> load(String emailAddress) throws IOException;
+
+    /**
+     * @param snapshot the snapshot to store, replacing any previous one (снимок для сохранения, заменяет предыдущий)
+     * @throws IOException if the store could not be written (если в хранилище не удалось записать)
+     */
+    void save(SessionSnapshot snapshot) throws IOException;
+
+    /**
+     * @param emailAddress the address whose snapshot is removed (адрес, снимок которого удаляется)
+     * @throws IOException if the store could not be written (если в хранилище не удалось записать)
+     */
+    void remove(String emailAddress) throws IOException;
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Возвращает сохранённый снимок или создаёт и сохраняет новый.</code><br>
+     * Реализации с блокировкой выполняют это атомарно, чтобы сеанс создавался только один раз на все процессы;
+     * реализация по умолчанию не атомарна.<br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Returns the stored snapshot, or creates and stores a new one.</code><br>
+     * Locking implementations do this atomically, so the session is created only once across all processes;
+     * the default implementation is not atomic.<br>
+     * </p>
+     *
+     * @param emailAddress the address to look up (адрес для поиска)
+     * @param creator      creates the snapshot when none is stored (создаёт снимок, если сохранённого нет)
+     * @return the stored or newly created snapshot <code>(сохранённый или новый снимок)</code>
+     * @throws Exception if the store or the creator fails (если хранилище или создание завершились ошибкой)
+     */
+    default SessionSnapshot getOrCreate(String emailAddress, Callable<SessionSnapshot> creator) throws Exception {
+        Optional<SessionSnapshot> stored = load(emailAddress);
+        if (stored.isPresent()) {
+            return stored.get();
+        }
+        SessionSnapshot created = creator.call();
+        save(created);
+        return created;
+    }
+}
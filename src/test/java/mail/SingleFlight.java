@@ -0,0 +1,88 @@
+package mail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Объединение одинаковых одновременных запросов в один сетевой вызов.</code><br>
+ * Первый поток, пришедший с ключом, выполняет запрос; остальные потоки с тем же ключом ждут и получают тот же результат
+ * (или ту же ошибку). После завершения запроса ключ освобождается, поэтому результат не кэшируется.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Coalesces identical concurrent requests into a single network call.</code><br>
+ * The first thread arriving with a key performs the call; other threads with the same key wait and receive the same result
+ * (or the same failure). The key is released once the call completes, so results are never cached.<br>
+ * </p>
+ *
+ * @param <T> the type of the shared result (тип общего результата)
+ */
+final class SingleFlight<T> {
+    private final ConcurrentHashMap<String, Flight<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * A call in flight and the number of callers that joined it (выполняющийся запрос и число присоединившихся к нему)
+     */
+    private static final class Flight<T> extends CompletableFuture<T> {
+        private final AtomicInteger followers = new AtomicInteger();
+    }
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Выполняет запрос или присоединяется к уже выполняющемуся запросу с тем же ключом.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Performs the call, or joins an in-flight call with the same key.</code><br>
+     * </p>
+     *
+     * @param key  the request identity, e.g. session and URL (идентичность запроса, например сессия и URL)
+     * @param call the call to perform if no identical call is in flight (запрос, выполняемый если такого же нет в процессе)
+     * @return the shared result <code>(общий результат)</code>
+     * @throws Exception the failure of the shared call (ошибка общего запроса)
+     */
+    T execute(String key, Callable<T> call) throws Exception {
+        Flight<T> created = new Flight<>();
+        Flight<T> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            existing.followers.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            T result = call.call();
+            created.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * @return the number of callers that joined the call in flight for the key, 0 if there is none; for tests
+     * (число вызовов, присоединившихся к выполняющемуся запросу с ключом, 0 если его нет; для тестов)
+     */
+    int followers(String key) {
+        Flight<T> flight = inFlight.get(key);
+        return flight == null ? 0 : flight.followers.get();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package mail;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-тесты {@link SingleFlight}: объединение одновременных вызовов, общая ошибка и освобождение ключа.</code><br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline tests of {@link SingleFlight}: coalescing of concurrent calls, the shared failure and key release.</code><br>
+ * </p>
+ */
+public class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    @Test
+    public void coalescesConcurrentCallsWithTheSameKey() throws Exception {
+        SingleFlight<Object> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object shared = new Object();
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            results.add(callers.submit(() -> flight.execute("key", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+                return shared;
+            })));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < CALLERS; i++) {
+                results.add(callers.submit(() -> flight.execute("key", () -> {
+                    calls.incrementAndGet();
+                    return new Object();
+                })));
+            }
+            awaitFollowers(flight, "key", CALLERS - 1); // Every other caller joined the call in flight
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertSame(shared, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sharesTheFailureWithWaitingCallers() throws Exception {
+        SingleFlight<Object> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = callers.submit(() -> flight.execute("key", () -> {
+                started.countDown();
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+                throw new IOException("boom");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = callers.submit(() -> flight.execute("key", Object::new));
+            awaitFollowers(flight, "key", 1);
+            release.countDown();
+            assertEquals("boom", assertThrows(ExecutionException.class, first::get).getCause().getMessage());
+            assertEquals("boom", assertThrows(ExecutionException.class, second::get).getCause().getMessage());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void releasesTheKeyAfterCompletion() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(1, flight.execute("key", calls::incrementAndGet));
+        assertEquals(2, flight.execute("key", calls::incrementAndGet)); // Not cached
+        assertThrows(IOException.class, () -> flight.execute("key", () -> {
+            throw new IOException("boom");
+        }));
+        assertEquals(3, flight.execute("key", calls::incrementAndGet)); // A failure is not remembered either
+    }
+
+    @Test
+    public void keepsDifferentKeysApart() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        // A call in flight for one key must neither block nor answer a call for another key
+        String outer = flight.execute("session-a|url", () -> {
+            assertEquals("b", flight.execute("session-b|url", () -> "b"));
+            return "a";
+        });
+        assertEquals("a", outer);
+        assertEquals(0, flight.followers("session-a|url"));
+    }
+
+    private static void awaitFollowers(SingleFlight<?> flight, String key, int followers) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flight.followers(key) < followers) {
+            assertTrue(System.nanoTime() < deadline, "followers joined: " + flight.followers(key));
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package mail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Соединение с заготовленным ответом для офлайн-тестов: код, заголовки и тело без сети.</code><br>
+ * Ответ вычисляется при подключении, поэтому он может зависеть от заголовков запроса (например, куки PHPSESSID).<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Connection with a canned response for offline tests: status, headers and body without the network.</code><br>
+ * The response is computed on connect, so it may depend on the request headers (e.g. the PHPSESSID cookie).<br>
+ * </p>
+ */
+final class StubConnection extends HttpURLConnection {
+    private final Responder responder;
+    private Reply reply;
+
+    /**
+     * Computes the reply from the request (вычисляет ответ по запросу)
+     */
+    interface Responder {
+        Reply reply(URL url, String cookie) throws IOException;
+    }
+
+    /**
+     * A response: status, headers in order and the body as sent (ответ: код, заголовки по порядку и тело как есть)
+     */
+    static final class Reply {
+        private final int status;
+        private final byte[] body;
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+        Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Reply json(String body) {
+            return new Reply(HTTP_OK, body.getBytes(StandardCharsets.UTF_8)).header("Content-Type", "application/json; charset=utf-8");
+        }
+
+        Reply header(String name, String value) {
+            headers.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+            return this;
+        }
+    }
+
+    StubConnection(URL url, Reply reply) {
+        this(url, (ignoredUrl, ignoredCookie) -> reply);
+    }
+
+    StubConnection(URL url, Responder responder) {
+        super(url);
+        this.responder = responder;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        reply = responder.reply(url, getRequestProperty("Cookie")); // Request properties are unreadable once connected
+        connected = true;
+        responseCode = reply.status;
+    }
+
+    private void connectQuietly() {
+        try {
+            connect();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        if (reply.status >= 400) {
+            throw new IOException("Server returned HTTP response code: " + reply.status + " for URL: " + url);
+        }
+        return new ByteArrayInputStream(reply.body);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return connected && reply.status >= 400 ? new ByteArrayInputStream(reply.body) : null;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        connect();
+        return reply.status;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        connectQuietly();
+        for (Map.Entry<String, List<String>> header : reply.headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue().get(header.getValue().size() - 1);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        connectQuietly();
+        return Collections.unmodifiableMap(reply.headers);
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        List<String[]> flat = flatHeaders();
+        return n < flat.size() ? flat.get(n)[1] : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        List<String[]> flat = flatHeaders();
+        return n < flat.size() ? flat.get(n)[0] : null;
+    }
+
+    private List<String[]> flatHeaders() {
+        connectQuietly();
+        List<String[]> flat = new ArrayList<>();
+        flat.add(new String[]{null, "HTTP/1.1 " + reply.status});
+        for (Map.Entry<String, List<String>> header : reply.headers.entrySet()) {
+            for (String value : header.getValue()) {
+                flat.add(new String[]{header.getKey(), value});
+            }
+        }
+        return flat;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+}
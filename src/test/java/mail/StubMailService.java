@@ -0,0 +1,273 @@
+package mail;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Офлайн-заглушка ajax.php как {@link Transport}: сеансы по PHPSESSID, ящики в памяти и журнал вызовов.</code><br>
+ * Поддерживает set_email_user, get_email_address, check_email, get_email_list (страницы по 20), fetch_email, del_email
+ * и forget_me. Письма добавляются через {@link #deliver}.<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Offline stub of ajax.php as a {@link Transport}: sessions by PHPSESSID, in-memory inboxes and a call log.</code><br>
+ * Supports set_email_user, get_email_address, check_email, get_email_list (pages of 20), fetch_email, del_email and
+ * forget_me. Emails are added with {@link #deliver}.<br>
+ * </p>
+ */
+final class StubMailService implements Transport {
+    static final int PAGE_SIZE = 20;
+
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private final AtomicInteger mailIds = new AtomicInteger(1000);
+    private final Map<String, String> addresses = new ConcurrentHashMap<>(); // PHPSESSID -> address
+    private final Map<String, List<JSONObject>> inboxes = new HashMap<>(); // Address -> emails, oldest first; guarded by itself
+    private final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile boolean keepDeleted;
+    private volatile long latencyMillis;
+
+    /**
+     * One request as the stub saw it (один запрос, как его увидела заглушка)
+     */
+    static final class Call {
+        final String function;
+        final Map<String, List<String>> params;
+        final String session;
+
+        Call(String function, Map<String, List<String>> params, String session) {
+            this.function = function;
+            this.params = params;
+            this.session = session;
+        }
+
+        String param(String name) {
+            List<String> values = params.get(name);
+            return values == null ? null : values.get(0);
+        }
+
+        @Override
+        public String toString() {
+            return function + params;
+        }
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) {
+        return new StubConnection(url, this::reply);
+    }
+
+    @Override
+    public void sleep(long millis) {
+        // Pauses between attempts are skipped offline
+    }
+
+    /**
+     * @return the new email's mail_id (mail_id нового письма)
+     */
+    int deliver(String address, String from, String subject, String body) {
+        int mailId = mailIds.incrementAndGet();
+        JSONObject email = new JSONObject()
+                .put("mail_id", mailId)
+                .put("mail_from", from)
+                .put("mail_subject", subject)
+                .put("mail_excerpt", body.length() > 20 ? body.substring(0, 20) : body)
+                .put("mail_body", body)
+                .put("mail_timestamp", System.currentTimeMillis() / 1000)
+                .put("mail_read", 0);
+        synchronized (inboxes) {
+            inboxes.computeIfAbsent(key(address), k -> new ArrayList<>()).add(email);
+        }
+        return mailId;
+    }
+
+    int inboxSize(String address) {
+        synchronized (inboxes) {
+            List<JSONObject> inbox = inboxes.get(key(address));
+            return inbox == null ? 0 : inbox.size();
+        }
+    }
+
+    /**
+     * @param keepDeleted true to answer del_email without deleting anything, like a listing that never shrinks
+     */
+    void setKeepDeleted(boolean keepDeleted) {
+        this.keepDeleted = keepDeleted;
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return the highest number of requests answered at the same time (наибольшее число одновременных запросов)
+     */
+    int maxConcurrentCalls() {
+        return maxRunning.get();
+    }
+
+    List<Call> calls(String function) {
+        List<Call> matching = new ArrayList<>();
+        synchronized (calls) {
+            for (Call call : calls) {
+                if (call.function.equals(function)) {
+                    matching.add(call);
+                }
+            }
+        }
+        return matching;
+    }
+
+    List<String> functions() {
+        List<String> functions = new ArrayList<>();
+        synchronized (calls) {
+            for (Call call : calls) {
+                functions.add(call.function);
+            }
+        }
+        return functions;
+    }
+
+    private StubConnection.Reply reply(URL url, String cookie) throws IOException {
+        max(running.incrementAndGet());
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            Map<String, List<String>> params = parse(url.getQuery());
+            String session = cookie != null && cookie.startsWith("PHPSESSID=") ? cookie.substring("PHPSESSID=".length()) : null;
+            boolean newSession = session == null;
+            if (newSession) {
+                session = "stub" + sessionIds.incrementAndGet();
+            }
+            String function = first(params, "f");
+            calls.add(new Call(function, params, session));
+            StubConnection.Reply reply = StubConnection.Reply.json(respond(function, params, session));
+            return newSession ? reply.header("Set-Cookie", "PHPSESSID=" + session + "; path=/") : reply;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private void max(int current) {
+        maxRunning.accumulateAndGet(current, Math::max);
+    }
+
+    private String respond(String function, Map<String, List<String>> params, String session) {
+        String token = "token-" + session + "-" + calls.size();
+        switch (function) {
+            case "set_email_user": {
+                String address = first(params, "email_user") + InboxLifecycleManager.DOMAIN;
+                addresses.put(session, address);
+                return new JSONObject().put("email_addr", address).put("sid_token", token).toString();
+            }
+            case "get_email_address": {
+                String address = addresses.computeIfAbsent(session, s -> s + InboxLifecycleManager.DOMAIN);
+                return new JSONObject().put("email_addr", address).put("sid_token", token).toString();
+            }
+            case "check_email":
+                return listing(session, 0, Long.parseLong(first(params, "seq"))).put("sid_token", token).toString();
+            case "get_email_list":
+                return listing(session, Integer.parseInt(first(params, "offset")), 0).put("sid_token", token).toString();
+            case "fetch_email": {
+                JSONObject email = find(session, Long.parseLong(first(params, "email_id")));
+                return email == null ? "false" : new JSONObject(email.toString()).put("sid_token", token).toString();
+            }
+            case "del_email":
+                return new JSONObject().put("deleted_ids", delete(session, params.getOrDefault("email_ids[]", List.of()))).toString();
+            case "forget_me":
+                addresses.remove(session);
+                return "true";
+            default:
+                return new JSONObject().put("error", "Unknown function " + function).toString();
+        }
+    }
+
+    private JSONObject listing(String session, int offset, long seq) {
+        JSONArray list = new JSONArray();
+        int count;
+        synchronized (inboxes) {
+            List<JSONObject> inbox = inboxes.getOrDefault(key(addresses.get(session)), List.of());
+            count = inbox.size();
+            for (int i = count - 1 - offset, listed = 0; i >= 0 && listed < PAGE_SIZE; i--) {
+                JSONObject email = inbox.get(i);
+                if (email.getLong("mail_id") > seq) {
+                    JSONObject item = new JSONObject(email.toString());
+                    item.remove("mail_body");
+                    list.put(item);
+                    listed++;
+                }
+            }
+        }
+        return new JSONObject().put("list", list).put("count", count);
+    }
+
+    private JSONObject find(String session, long mailId) {
+        synchronized (inboxes) {
+            for (JSONObject email : inboxes.getOrDefault(key(addresses.get(session)), List.of())) {
+                if (email.getLong("mail_id") == mailId) {
+                    return email;
+                }
+            }
+        }
+        return null;
+    }
+
+    private JSONArray delete(String session, List<String> ids) {
+        JSONArray deleted = new JSONArray();
+        synchronized (inboxes) {
+            List<JSONObject> inbox = inboxes.getOrDefault(key(addresses.get(session)), new ArrayList<>());
+            for (String id : ids) {
+                long mailId = Long.parseLong(id);
+                if (inbox.stream().anyMatch(email -> email.getLong("mail_id") == mailId)) {
+                    deleted.put(mailId);
+                    if (!keepDeleted) {
+                        inbox.removeIf(email -> email.getLong("mail_id") == mailId);
+                    }
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static String key(String address) {
+        return address == null ? "" : address.toLowerCase(Locale.ROOT);
+    }
+
+    private static String first(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null ? "" : values.get(0);
+    }
+
+    private static Map<String, List<String>> parse(String query) throws UnsupportedEncodingException {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                String[] keyValue = param.split("=", 2);
+                String value = keyValue.length > 1 ? URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8.name()) : "";
+                params.computeIfAbsent(URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8.name()), k -> new ArrayList<>()).add(value);
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,51 @@
+package mail;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * <strong>Русский:</strong><br>
+ * <code>Транспорт, через который {@link GuerrillaMailApi} открывает HTTP-соединения и выполняет паузы.</code><br>
+ * Позволяет подменить сеть, например записью и воспроизведением обменов ({@link RecordReplayTransport}).<br>
+ * </p>
+ * <strong>English:</strong><br>
+ * <code>Transport through which {@link GuerrillaMailApi} opens HTTP connections and performs pauses.</code><br>
+ * It allows the network to be replaced, for example by recording and replaying exchanges ({@link RecordReplayTransport}).<br>
+ * </p>
+ */
+public interface Transport {
+    /**
+     * Opens real connections over the network (открывает реальные соединения по сети)
+     */
+    Transport LIVE = url -> (HttpURLConnection) url.openConnection();
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Открывает соединение с указанным URL, ещё не подключённое.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Opens a not yet connected connection to the specified URL.</code><br>
+     * </p>
+     *
+     * @param url the URL to open (URL для открытия)
+     * @return the connection <code>(соединение)</code>
+     * @throws IOException if the connection could not be opened (если не удалось открыть соединение)
+     */
+    HttpURLConnection open(URL url) throws IOException;
+
+    /**
+     * <strong>Русский:</strong><br>
+     * <code>Выполняет паузу между попытками; транспорт может сократить или убрать её.</code><br>
+     * </p>
+     * <strong>English:</strong><br>
+     * <code>Performs a pause between attempts; the transport may shorten or remove it.</code><br>
+     * </p>
+     *
+     * @param millis the requested pause in milliseconds (запрошенная пауза в миллисекундах)
+     * @throws InterruptedException if the thread is interrupted (если поток прерван)
+     */
+    default void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}